@@ -0,0 +1,155 @@
+package zbj.gr.easy.daemon;
+
+/**
+ * 常驻进程中的下载任务，字段均可序列化，持久化到 {@link DaemonJobStore}
+ */
+public class DaemonJob {
+
+    public enum JobType {
+        /**
+         * 单文件分块下载，对应 FileDownloader
+         */
+        DOWNLOAD,
+        /**
+         * huggingface 仓库同步，对应 RetryHuggingDownload
+         */
+        REPO_SYNC
+    }
+
+    public enum JobState {
+        /**
+         * PAUSING：已请求暂停，下载尚未退出；退出后变为 PAUSED
+         */
+        QUEUED, RUNNING, PAUSING, PAUSED, DONE, FAILED
+    }
+
+    private String id;
+    private JobType type;
+    private String url;
+    private String repoPath;
+    private String includePattern;
+    private String saveDir;
+    private int threadCount = 8;
+    /**
+     * 数值越大越先执行
+     */
+    private int priority;
+    private JobState state;
+    private long totalBytes = -1;
+    private long downloadedBytes;
+    private String message;
+    private long createTime;
+    private long updateTime;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public JobType getType() {
+        return type;
+    }
+
+    public void setType(JobType type) {
+        this.type = type;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getRepoPath() {
+        return repoPath;
+    }
+
+    public void setRepoPath(String repoPath) {
+        this.repoPath = repoPath;
+    }
+
+    public String getIncludePattern() {
+        return includePattern;
+    }
+
+    public void setIncludePattern(String includePattern) {
+        this.includePattern = includePattern;
+    }
+
+    public String getSaveDir() {
+        return saveDir;
+    }
+
+    public void setSaveDir(String saveDir) {
+        this.saveDir = saveDir;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    public JobState getState() {
+        return state;
+    }
+
+    public void setState(JobState state) {
+        this.state = state;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    public long getDownloadedBytes() {
+        return downloadedBytes;
+    }
+
+    public void setDownloadedBytes(long downloadedBytes) {
+        this.downloadedBytes = downloadedBytes;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public long getCreateTime() {
+        return createTime;
+    }
+
+    public void setCreateTime(long createTime) {
+        this.createTime = createTime;
+    }
+
+    public long getUpdateTime() {
+        return updateTime;
+    }
+
+    public void setUpdateTime(long updateTime) {
+        this.updateTime = updateTime;
+    }
+}
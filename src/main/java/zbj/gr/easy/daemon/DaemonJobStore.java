@@ -0,0 +1,127 @@
+package zbj.gr.easy.daemon;
+
+import com.alibaba.fastjson.JSON;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * 持久化的任务队列。每次变更都整体写入临时文件后原子替换，进程重启后恢复；
+ * 重启前处于 RUNNING 的任务回到 QUEUED，由下载器的进度文件断点续传；PAUSING 的任务回到 PAUSED。
+ */
+public class DaemonJobStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DaemonJobStore.class);
+    private static final Comparator<DaemonJob> DISPATCH_ORDER = Comparator.comparingInt(DaemonJob::getPriority).reversed()
+            .thenComparingLong(DaemonJob::getCreateTime);
+
+    private final File storeFile;
+    private final Map<String, DaemonJob> id2JobMap = Maps.newLinkedHashMap();
+
+    public DaemonJobStore(File storeFile) {
+        this.storeFile = storeFile;
+        load();
+    }
+
+    public synchronized DaemonJob add(DaemonJob job) {
+        long now = System.currentTimeMillis();
+        job.setId(UUID.randomUUID().toString().replace("-", "").substring(0, 12));
+        job.setState(DaemonJob.JobState.QUEUED);
+        job.setCreateTime(now);
+        job.setUpdateTime(now);
+        id2JobMap.put(job.getId(), job);
+        persist();
+        return job;
+    }
+
+    public synchronized DaemonJob get(String id) {
+        return id2JobMap.get(id);
+    }
+
+    public synchronized List<DaemonJob> list() {
+        List<DaemonJob> jobList = Lists.newArrayList(id2JobMap.values());
+        jobList.sort(DISPATCH_ORDER);
+        return jobList;
+    }
+
+    /**
+     * 取出满足 dispatchable 且优先级最高的 QUEUED 任务并置为 RUNNING，没有时返回 null
+     */
+    public synchronized DaemonJob pollNext(Predicate<DaemonJob> dispatchable) {
+        DaemonJob next = id2JobMap.values().stream().filter(job -> job.getState() == DaemonJob.JobState.QUEUED)
+                .filter(dispatchable)
+                .min(DISPATCH_ORDER).orElse(null);
+        if (next != null) {
+            updateState(next, DaemonJob.JobState.RUNNING, null);
+        }
+        return next;
+    }
+
+    public synchronized void updateState(DaemonJob job, DaemonJob.JobState state, String message) {
+        job.setState(state);
+        job.setMessage(message);
+        job.setUpdateTime(System.currentTimeMillis());
+        persist();
+    }
+
+    public synchronized void updatePriority(DaemonJob job, int priority) {
+        job.setPriority(priority);
+        job.setUpdateTime(System.currentTimeMillis());
+        persist();
+    }
+
+    /**
+     * 只更新内存中的进度，随下一次状态变更落盘
+     */
+    public synchronized void updateProgress(DaemonJob job, long totalBytes, long downloadedBytes) {
+        job.setTotalBytes(totalBytes);
+        job.setDownloadedBytes(downloadedBytes);
+    }
+
+    private void load() {
+        if (!storeFile.exists()) {
+            return;
+        }
+        try {
+            String content = FileUtils.readFileToString(storeFile, StandardCharsets.UTF_8.name());
+            List<DaemonJob> jobList = StringUtils.isBlank(content) ? null : JSON.parseArray(content, DaemonJob.class);
+            if (jobList == null) {
+                return;
+            }
+            for (DaemonJob job : jobList) {
+                if (job.getState() == DaemonJob.JobState.RUNNING) {
+                    job.setState(DaemonJob.JobState.QUEUED);
+                } else if (job.getState() == DaemonJob.JobState.PAUSING) {
+                    job.setState(DaemonJob.JobState.PAUSED);
+                }
+                id2JobMap.put(job.getId(), job);
+            }
+            LOGGER.info("load daemon job store {}||job count={}", storeFile.getAbsolutePath(), id2JobMap.size());
+        } catch (Exception e) {
+            LOGGER.error("failed to load daemon job store {}", storeFile.getAbsolutePath(), e);
+        }
+    }
+
+    private void persist() {
+        File tmpFile = new File(storeFile.getAbsoluteFile().getParentFile(), storeFile.getName() + ".tmp");
+        try {
+            FileUtils.writeStringToFile(tmpFile, JSON.toJSONString(Lists.newArrayList(id2JobMap.values()), true), StandardCharsets.UTF_8.name());
+            Files.move(tmpFile.toPath(), storeFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOGGER.error("failed to persist daemon job store {}", storeFile.getAbsolutePath(), e);
+        }
+    }
+}
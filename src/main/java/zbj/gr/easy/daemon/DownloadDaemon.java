@@ -0,0 +1,394 @@
+package zbj.gr.easy.daemon;
+
+import com.alibaba.fastjson.JSON;
+import com.google.common.collect.ImmutableMap;
+import com.grw.xiaobai.util.CompletableFutureUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zbj.gr.easy.downloader.DownloadTask;
+import zbj.gr.easy.downloader.FileDownloader;
+import zbj.gr.easy.hugging.RetryHuggingDownload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 常驻下载进程：所有任务共用一个预热的 HttpClient 连接池和分块下载线程池，
+ * 同一台机器上的多个使用者通过本地 HTTP 接口提交任务，由同一个调度器按优先级执行，避免各自起进程争抢带宽。
+ * <p>
+ * 接口（仅监听 127.0.0.1）：
+ * <pre>
+ * GET  /jobs                        列出任务
+ * POST /jobs                        提交任务，body 为 {@link DaemonJob} 的 json
+ * GET  /jobs/{id}                   查看任务
+ * POST /jobs/{id}/pause             暂停，运行中的下载先变为 PAUSING，退出后变为 PAUSED 并保留进度
+ * POST /jobs/{id}/resume            恢复暂停或失败的任务
+ * POST /jobs/{id}/priority?value=N  调整优先级
+ * </pre>
+ */
+public class DownloadDaemon {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DownloadDaemon.class);
+    private static final int DEFAULT_PORT = 17890;
+    private static final String JOBS_PATH = "/jobs";
+    private static final long PROGRESS_REFRESH_SECONDS = 2;
+
+    private final DaemonJobStore store;
+    private final int port;
+    private final int jobConcurrency;
+    private final int maxConnections;
+    private final CloseableHttpClient httpClient;
+    private final ExecutorService segmentExecutor;
+    private final Map<String, FileDownloader> jobId2DownloaderMap = new ConcurrentHashMap<>();
+    /**
+     * 任务 id -> 正在执行该任务的运行标识。标识存在时任务不会被再次调度，只有持有者可以写任务的最终状态
+     */
+    private final Map<String, Object> jobId2RunTokenMap = new ConcurrentHashMap<>();
+    private final Object dispatchLock = new Object();
+    private ExecutorService jobExecutor;
+    private ScheduledExecutorService progressExecutor;
+    private HttpServer httpServer;
+    private volatile boolean running;
+
+    /**
+     * @param jobConcurrency 同时执行的任务数
+     * @param maxConnections 所有下载任务共享的连接数和分块线程数上限
+     */
+    public DownloadDaemon(File storeFile, int port, int jobConcurrency, int maxConnections, String proxyHost, int proxyPort) {
+        this.store = new DaemonJobStore(storeFile);
+        this.port = port;
+        this.jobConcurrency = jobConcurrency;
+        this.maxConnections = maxConnections;
+        this.httpClient = DownloadTask.createPooledHttpClient(proxyHost, proxyPort, maxConnections);
+        this.segmentExecutor = Executors.newFixedThreadPool(maxConnections);
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        running = true;
+        jobExecutor = Executors.newFixedThreadPool(jobConcurrency);
+        for (int i = 0; i < jobConcurrency; i++) {
+            jobExecutor.submit(this::workLoop);
+        }
+        progressExecutor = Executors.newSingleThreadScheduledExecutor();
+        progressExecutor.scheduleWithFixedDelay(this::refreshProgress, PROGRESS_REFRESH_SECONDS, PROGRESS_REFRESH_SECONDS, TimeUnit.SECONDS);
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        httpServer.createContext(JOBS_PATH, this::handle);
+        httpServer.start();
+        LOGGER.info("download daemon started||port={}||job concurrency={}", port, jobConcurrency);
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        httpServer.stop(1);
+        // 运行中的下载停止后保留进度，任务状态仍为 RUNNING，重启后恢复为 QUEUED 继续
+        jobId2DownloaderMap.values().forEach(FileDownloader::stop);
+        synchronized (dispatchLock) {
+            dispatchLock.notifyAll();
+        }
+        CompletableFutureUtil.shutdownGracefully(jobExecutor, 30, TimeUnit.SECONDS);
+        CompletableFutureUtil.shutdownGracefully(progressExecutor, 5, TimeUnit.SECONDS);
+        CompletableFutureUtil.shutdownGracefully(segmentExecutor, 10, TimeUnit.SECONDS);
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            LOGGER.warn("close http client error", e);
+        }
+        LOGGER.info("download daemon stopped");
+    }
+
+    private void workLoop() {
+        while (running) {
+            DaemonJob job;
+            Object runToken = new Object();
+            synchronized (dispatchLock) {
+                // 上一次执行尚未退出的任务（暂停中又被恢复），以及与执行中任务写同一个目标的任务不调度，避免两个下载器写同一个文件
+                Set<String> busyTargetSet = jobId2RunTokenMap.keySet().stream()
+                        .map(store::get)
+                        .filter(Objects::nonNull)
+                        .map(DownloadDaemon::targetPath)
+                        .collect(Collectors.toSet());
+                job = store.pollNext(candidate -> !jobId2RunTokenMap.containsKey(candidate.getId())
+                        && !busyTargetSet.contains(targetPath(candidate)));
+                if (job == null) {
+                    try {
+                        dispatchLock.wait(TimeUnit.SECONDS.toMillis(1));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    continue;
+                }
+                jobId2RunTokenMap.put(job.getId(), runToken);
+            }
+            runJob(job, runToken);
+        }
+    }
+
+    private void runJob(DaemonJob job, Object runToken) {
+        LOGGER.info("start job {}||type={}||priority={}", job.getId(), job.getType(), job.getPriority());
+        boolean success;
+        String message = null;
+        try {
+            if (job.getType() == DaemonJob.JobType.REPO_SYNC) {
+                success = new RetryHuggingDownload().downloadHuggingWholeRepo(job.getRepoPath(), new File(job.getSaveDir()),
+                        job.getIncludePattern());
+            } else {
+                FileDownloader downloader = FileDownloader.builder()
+                        .url(job.getUrl())
+                        .saveDir(job.getSaveDir())
+                        // 队列文件中的旧任务可能超过本次启动的连接数上限
+                        .threadCount(Math.min(job.getThreadCount(), maxConnections))
+                        .httpClient(httpClient)
+                        .segmentExecutor(segmentExecutor)
+                        .build();
+                synchronized (store) {
+                    jobId2DownloaderMap.put(job.getId(), downloader);
+                    // 调度后、登记下载器前已被暂停
+                    if (job.getState() != DaemonJob.JobState.RUNNING) {
+                        downloader.stop();
+                    }
+                }
+                try {
+                    success = downloader.download();
+                } finally {
+                    jobId2DownloaderMap.remove(job.getId(), downloader);
+                    store.updateProgress(job, downloader.getFileSize(), downloader.getDownloadedBytes());
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.error("job {} exception", job.getId(), e);
+            success = false;
+            message = e.getMessage();
+        }
+        synchronized (store) {
+            if (jobId2RunTokenMap.get(job.getId()) == runToken) {
+                if (job.getState() == DaemonJob.JobState.PAUSING) {
+                    store.updateState(job, DaemonJob.JobState.PAUSED, null);
+                } else if (job.getState() == DaemonJob.JobState.RUNNING && running) {
+                    // 进程正在退出时保留 RUNNING，重启后回到 QUEUED 继续
+                    store.updateState(job, success ? DaemonJob.JobState.DONE : DaemonJob.JobState.FAILED, message);
+                }
+                jobId2RunTokenMap.remove(job.getId(), runToken);
+            }
+        }
+        LOGGER.info("finish job {}||state={}", job.getId(), job.getState());
+        // 暂停期间被恢复的任务此时才可以重新调度
+        wakeUpWorkers();
+    }
+
+    /**
+     * 任务写入的目标：下载为保存文件的绝对路径，仓库同步为保存目录的绝对路径
+     */
+    private static String targetPath(DaemonJob job) {
+        File saveDir = new File(job.getSaveDir());
+        if (job.getType() == DaemonJob.JobType.REPO_SYNC) {
+            return saveDir.getAbsolutePath();
+        }
+        try {
+            return new File(saveDir, FileDownloader.extractFileNameFromUrl(job.getUrl())).getAbsolutePath();
+        } catch (IllegalArgumentException e) {
+            // 非法 url 在执行时失败，不与其他任务冲突
+            return job.getUrl();
+        }
+    }
+
+    private void refreshProgress() {
+        jobId2DownloaderMap.forEach((id, downloader) -> {
+            DaemonJob job = store.get(id);
+            if (job != null) {
+                store.updateProgress(job, downloader.getFileSize(), downloader.getDownloadedBytes());
+            }
+        });
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            String[] segments = StringUtils.split(path.substring(JOBS_PATH.length()), '/');
+            if (segments.length == 0) {
+                if ("GET".equals(method)) {
+                    writeJson(exchange, 200, store.list());
+                } else if ("POST".equals(method)) {
+                    submit(exchange);
+                } else {
+                    writeError(exchange, 405, "method not allowed");
+                }
+                return;
+            }
+            DaemonJob job = store.get(segments[0]);
+            if (job == null) {
+                writeError(exchange, 404, "job not found");
+                return;
+            }
+            if (segments.length == 1 && "GET".equals(method)) {
+                writeJson(exchange, 200, job);
+            } else if (segments.length == 2 && "POST".equals(method)) {
+                handleAction(exchange, job, segments[1]);
+            } else {
+                writeError(exchange, 404, "unknown path");
+            }
+        } catch (Exception e) {
+            LOGGER.error("handle request {} exception", exchange.getRequestURI(), e);
+            writeError(exchange, 500, e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void submit(HttpExchange exchange) throws IOException {
+        String body = IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8.name());
+        DaemonJob job = JSON.parseObject(body, DaemonJob.class);
+        if (job == null || job.getType() == null) {
+            writeError(exchange, 400, "type is required");
+            return;
+        }
+        if (job.getType() == DaemonJob.JobType.DOWNLOAD && StringUtils.isBlank(job.getUrl())) {
+            writeError(exchange, 400, "url is required");
+            return;
+        }
+        if (job.getType() == DaemonJob.JobType.REPO_SYNC && StringUtils.isBlank(job.getRepoPath())) {
+            writeError(exchange, 400, "repoPath is required");
+            return;
+        }
+        if (StringUtils.isBlank(job.getSaveDir())) {
+            writeError(exchange, 400, "saveDir is required");
+            return;
+        }
+        if (job.getThreadCount() <= 0) {
+            writeError(exchange, 400, "threadCount must be positive");
+            return;
+        }
+        if (job.getThreadCount() > maxConnections) {
+            // 超过共享连接数时多出的分块只能排队等连接，还会占满其他任务的连接
+            writeError(exchange, 400, "threadCount must not exceed " + maxConnections);
+            return;
+        }
+        store.add(job);
+        LOGGER.info("submit job {}||type={}||priority={}", job.getId(), job.getType(), job.getPriority());
+        wakeUpWorkers();
+        writeJson(exchange, 200, job);
+    }
+
+    private void handleAction(HttpExchange exchange, DaemonJob job, String action) throws IOException {
+        synchronized (store) {
+            switch (action) {
+                case "pause":
+                    if (job.getState() == DaemonJob.JobState.RUNNING) {
+                        if (job.getType() == DaemonJob.JobType.REPO_SYNC) {
+                            writeError(exchange, 409, "running repo sync can not be paused");
+                            return;
+                        }
+                        // 下载退出后由 runJob 置为 PAUSED，之前不会被再次调度
+                        store.updateState(job, DaemonJob.JobState.PAUSING, null);
+                        FileDownloader downloader = jobId2DownloaderMap.get(job.getId());
+                        if (downloader != null) {
+                            downloader.stop();
+                        }
+                    } else if (job.getState() == DaemonJob.JobState.QUEUED && jobId2RunTokenMap.containsKey(job.getId())) {
+                        // 暂停中又被恢复，旧的下载尚未退出
+                        store.updateState(job, DaemonJob.JobState.PAUSING, null);
+                    } else if (job.getState() == DaemonJob.JobState.QUEUED) {
+                        store.updateState(job, DaemonJob.JobState.PAUSED, null);
+                    } else if (job.getState() != DaemonJob.JobState.PAUSED && job.getState() != DaemonJob.JobState.PAUSING) {
+                        writeError(exchange, 409, "job is " + job.getState());
+                        return;
+                    }
+                    break;
+                case "resume":
+                    // PAUSING 的任务恢复后等旧的下载退出才会被调度
+                    if (job.getState() != DaemonJob.JobState.PAUSED && job.getState() != DaemonJob.JobState.PAUSING
+                            && job.getState() != DaemonJob.JobState.FAILED) {
+                        writeError(exchange, 409, "job is " + job.getState());
+                        return;
+                    }
+                    store.updateState(job, DaemonJob.JobState.QUEUED, null);
+                    break;
+                case "priority":
+                    String value = queryParam(exchange, "value");
+                    if (!StringUtils.isNumeric(StringUtils.removeStart(value, "-"))) {
+                        writeError(exchange, 400, "value must be an integer");
+                        return;
+                    }
+                    store.updatePriority(job, Integer.parseInt(value));
+                    break;
+                default:
+                    writeError(exchange, 404, "unknown action " + action);
+                    return;
+            }
+        }
+        wakeUpWorkers();
+        writeJson(exchange, 200, job);
+    }
+
+    private void wakeUpWorkers() {
+        synchronized (dispatchLock) {
+            dispatchLock.notifyAll();
+        }
+    }
+
+    private static String queryParam(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            String[] kv = pair.split("=", 2);
+            if (kv.length == 2 && kv[0].equals(name)) {
+                return kv[1];
+            }
+        }
+        return null;
+    }
+
+    private static void writeError(HttpExchange exchange, int code, String message) throws IOException {
+        writeJson(exchange, code, ImmutableMap.of("error", String.valueOf(message)));
+    }
+
+    private static void writeJson(HttpExchange exchange, int code, Object body) throws IOException {
+        byte[] bytes = JSON.toJSONString(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+
+    /**
+     * 参数：[端口] [同时执行任务数] [共享连接数] [任务队列文件] [代理主机] [代理端口]
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int jobConcurrency = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int maxConnections = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+        File storeFile = new File(args.length > 3 ? args[3] : "download_daemon_jobs.json");
+        String proxyHost = args.length > 5 ? args[4] : null;
+        int proxyPort = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+        DownloadDaemon daemon = new DownloadDaemon(storeFile, port, jobConcurrency, maxConnections, proxyHost, proxyPort);
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::stop));
+        daemon.start();
+    }
+}
@@ -0,0 +1,117 @@
+package zbj.gr.easy.downloader;
+
+/**
+ * 根据单个连接观测到的吞吐和 RTT 决定下一次 Range 请求的大小。
+ * 目标是让一次请求的传输时间约为 RTT 的 {@link #RTT_MULTIPLE} 倍（带宽时延积的倍数），
+ * 使建连和首字节等待的开销占比足够小；请求失败时减半，降低不稳定链路上的重传代价。
+ */
+public class AdaptiveRangeSizer {
+    public static final long DEFAULT_MIN_BLOCK_SIZE = 256 * 1024;
+    public static final long DEFAULT_MAX_BLOCK_SIZE = 32 * 1024 * 1024;
+    /**
+     * 没有观测数据时使用原先固定的 4MB
+     */
+    private static final long INITIAL_BLOCK_SIZE = 4 * 1024 * 1024;
+    private static final double RTT_MULTIPLE = 16;
+    /**
+     * 低延迟链路上单次请求至少传输这么久，避免请求过碎
+     */
+    private static final long MIN_TARGET_TRANSFER_MILLIS = 500;
+    private static final double SMOOTH_FACTOR = 0.3;
+    private static final int MAX_GROWTH_FACTOR = 2;
+
+    private final long minBlockSize;
+    private final long maxBlockSize;
+    private double throughputBytesPerSecond = -1;
+    private double rttMillis = -1;
+    private long blockSize;
+
+    private long requestCount;
+    private long requestedBytes;
+    private long minChosenSize = Long.MAX_VALUE;
+    private long maxChosenSize;
+
+    public AdaptiveRangeSizer(long minBlockSize, long maxBlockSize) {
+        if (minBlockSize <= 0 || maxBlockSize < minBlockSize) {
+            throw new IllegalArgumentException("invalid block size range [" + minBlockSize + ", " + maxBlockSize + "]");
+        }
+        this.minBlockSize = minBlockSize;
+        this.maxBlockSize = maxBlockSize;
+        this.blockSize = clamp(INITIAL_BLOCK_SIZE);
+    }
+
+    /**
+     * 下一次请求的建议大小，调用方按分段剩余字节截断后再通过 {@link #recordRequest} 计入统计
+     */
+    public synchronized long nextBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @param sentBytes 实际发出的 Range 请求字节数
+     */
+    public synchronized void recordRequest(long sentBytes) {
+        requestCount++;
+        requestedBytes += sentBytes;
+        minChosenSize = Math.min(minChosenSize, sentBytes);
+        maxChosenSize = Math.max(maxChosenSize, sentBytes);
+    }
+
+    /**
+     * @param bytes          本次请求收到的字节数
+     * @param rttMillis      发出请求到收到响应头的耗时
+     * @param transferMillis 收到响应头到响应体读完的耗时
+     */
+    public synchronized void onSuccess(long bytes, long rttMillis, long transferMillis) {
+        this.rttMillis = smooth(this.rttMillis, rttMillis);
+        if (bytes > 0 && transferMillis > 0) {
+            this.throughputBytesPerSecond = smooth(this.throughputBytesPerSecond, bytes * 1000.0 / transferMillis);
+        }
+        if (throughputBytesPerSecond <= 0) {
+            return;
+        }
+        double targetMillis = Math.max(this.rttMillis * RTT_MULTIPLE, MIN_TARGET_TRANSFER_MILLIS);
+        long target = (long) (throughputBytesPerSecond * targetMillis / 1000);
+        blockSize = clamp(Math.min(target, blockSize * MAX_GROWTH_FACTOR));
+    }
+
+    public synchronized void onFailure() {
+        blockSize = clamp(blockSize / 2);
+    }
+
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    public synchronized long getRequestedBytes() {
+        return requestedBytes;
+    }
+
+    public synchronized long getMinChosenSize() {
+        return requestCount == 0 ? 0 : minChosenSize;
+    }
+
+    public synchronized long getMaxChosenSize() {
+        return maxChosenSize;
+    }
+
+    public synchronized long getCurrentBlockSize() {
+        return blockSize;
+    }
+
+    public synchronized double getThroughputBytesPerSecond() {
+        return throughputBytesPerSecond;
+    }
+
+    public synchronized double getRttMillis() {
+        return rttMillis;
+    }
+
+    private long clamp(long size) {
+        return Math.max(minBlockSize, Math.min(maxBlockSize, size));
+    }
+
+    private static double smooth(double current, double sample) {
+        return current < 0 ? sample : current * (1 - SMOOTH_FACTOR) + sample * SMOOTH_FACTOR;
+    }
+}
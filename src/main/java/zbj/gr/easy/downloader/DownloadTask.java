@@ -2,14 +2,17 @@ package zbj.gr.easy.downloader;
 
 
 import cn.hutool.core.thread.ThreadUtil;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,13 +24,15 @@ import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class DownloadTask implements Runnable {
 
     private static final Logger logger = LoggerFactory.getLogger(DownloadTask.class);
     private static final int MAX_RETRIES = 30; // 最大重试次数
-    private static final int BLOCK_SIZE = 4 * 1024 * 1024; // 每个块 4MB
-    private static final int BUFFER_SIZE = BLOCK_SIZE; // 缓冲区大小
+    private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/");
+    private static final int BUFFER_SIZE = 4 * 1024 * 1024; // 缓冲区大小
 
     private final CloseableHttpClient httpClient;
     private final String url;
@@ -35,37 +40,61 @@ public class DownloadTask implements Runnable {
     private final long startByte;
     private final long endByte;
     private final File progressFile;
+    private final AdaptiveRangeSizer rangeSizer;
+    /**
+     * 远端文件的强 ETag，作为 If-Range 发送；文件变化时服务端返回 200，立即失败而不是拼接出错误文件
+     */
+    private final String entityTag;
     private long downloadedBytes;
     private long incrementDownloadBytes;
     private int timeout = 5000;
+    private volatile boolean completed;
+    private volatile boolean stopped;
+    private volatile boolean resourceChanged;
 
     public DownloadTask(CloseableHttpClient httpClient, String url, RandomAccessFile randomAccessFile, long startByte, long endByte, File progressFile) {
+        this(httpClient, url, randomAccessFile, startByte, endByte, progressFile,
+                new AdaptiveRangeSizer(AdaptiveRangeSizer.DEFAULT_MIN_BLOCK_SIZE, AdaptiveRangeSizer.DEFAULT_MAX_BLOCK_SIZE), null);
+    }
+
+    public DownloadTask(CloseableHttpClient httpClient, String url, RandomAccessFile randomAccessFile, long startByte, long endByte,
+                        File progressFile, AdaptiveRangeSizer rangeSizer, String entityTag) {
         this.httpClient = httpClient;
         this.url = url;
         this.randomAccessFile = randomAccessFile;
         this.startByte = startByte;
         this.endByte = endByte;
         this.progressFile = progressFile;
+        this.rangeSizer = rangeSizer;
+        this.entityTag = entityTag;
         this.downloadedBytes = readDownloadedBytesFromProgressFile();
     }
 
     @Override
     public void run() {
-        long currentStart = startByte + downloadedBytes;
-        while (currentStart <= endByte) {
-            long currentEnd = Math.min(currentStart + BLOCK_SIZE - 1, endByte);
-            downloadBlock(currentStart, currentEnd);
-            currentStart += BLOCK_SIZE;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (startByte + downloadedBytes <= endByte) {
+            if (!downloadNextRange(buffer)) {
+                // 保留进度文件，下次从断点继续
+                return;
+            }
         }
-        // 完成后清除进度文件
-        progressFile.delete();
+        completed = true;
+        // 进度文件保留到整个文件下载成功后随进度目录一起删除，其他分块中断时已完成的分块续传不必重下
     }
 
-    private void downloadBlock(long blockStart, long blockEnd) {
+    /**
+     * 从当前进度处请求下一段，大小由 {@link AdaptiveRangeSizer} 决定。
+     * 写入文件的数据总是连续的，失败重试时从已写入的位置继续，不会重复下载整块。
+     */
+    private boolean downloadNextRange(byte[] buffer) {
         int retryCount = 0;
-        boolean success = false;
         Random random = new Random();
-        while (!success && retryCount < MAX_RETRIES) {
+        while (retryCount < MAX_RETRIES && !stopped) {
+            long blockStart = startByte + downloadedBytes;
+            long blockEnd = Math.min(blockStart + rangeSizer.nextBlockSize() - 1, endByte);
+            rangeSizer.recordRequest(blockEnd - blockStart + 1);
+            long requestTime = System.currentTimeMillis();
             try {
                 RequestConfig requestConfig = RequestConfig.custom()
                         .setConnectTimeout(timeout)    // 连接超时（毫秒）
@@ -75,31 +104,51 @@ public class DownloadTask implements Runnable {
                 HttpGet request = new HttpGet(url);
                 request.setConfig(requestConfig);
                 request.setHeader("Range", "bytes=" + blockStart + "-" + blockEnd);
+                if (entityTag != null) {
+                    request.setHeader("If-Range", entityTag);
+                }
                 try (CloseableHttpResponse response = httpClient.execute(request)) {
+                    long headerTime = System.currentTimeMillis();
                     int statusCode = response.getStatusLine().getStatusCode();
-                    if (statusCode == 206) {
-                        HttpEntity entity = response.getEntity();
-                        if (entity != null) {
-                            try (InputStream inputStream = entity.getContent()) {
-                                byte[] buffer = new byte[BUFFER_SIZE];
-                                int bytesRead;
-                                randomAccessFile.seek(blockStart);
-                                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                                    randomAccessFile.write(buffer, 0, bytesRead);
-                                    downloadedBytes += bytesRead;
-                                    updateProgressFile(downloadedBytes);
-                                    incrementDownloadBytes += bytesRead;
-                                }
-                            }
-                        }
-                    } else {
+                    if (statusCode == 200 && entityTag != null) {
+                        logger.error("Remote file changed, abort||url={}||etag={}", url, entityTag);
+                        resourceChanged = true;
+                        return false;
+                    }
+                    if (statusCode != 206) {
                         logger.warn("Unexpected status code: {}", statusCode);
                         throw new IOException("unexpected status code " + statusCode + ",line=" + response.getStatusLine().getReasonPhrase());
                     }
+                    checkContentRange(response.getFirstHeader("Content-Range"), blockStart, blockEnd);
+                    long received = 0;
+                    HttpEntity entity = response.getEntity();
+                    if (entity != null) {
+                        try (InputStream inputStream = entity.getContent()) {
+                            long remaining = blockEnd - blockStart + 1;
+                            int bytesRead;
+                            randomAccessFile.seek(blockStart);
+                            while (remaining > 0 && !stopped && (bytesRead = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                                randomAccessFile.write(buffer, 0, bytesRead);
+                                downloadedBytes += bytesRead;
+                                updateProgressFile(downloadedBytes);
+                                incrementDownloadBytes += bytesRead;
+                                received += bytesRead;
+                                remaining -= bytesRead;
+                            }
+                        }
+                    }
+                    if (received == 0) {
+                        throw new IOException("empty response body for range " + blockStart + "-" + blockEnd);
+                    }
+                    rangeSizer.onSuccess(received, headerTime - requestTime, System.currentTimeMillis() - headerTime);
                 }
-                success = true;
+                return !stopped;
             } catch (IOException e) {
+                if (stopped) {
+                    return false;
+                }
                 retryCount++;
+                rangeSizer.onFailure();
                 ThreadUtil.sleep(random.nextInt(3000) + 300);
                 logger.warn("Attempt {} failed for block [{}-{}]. Retrying...", retryCount, blockStart, blockEnd);
                 if (retryCount >= MAX_RETRIES) {
@@ -107,6 +156,25 @@ public class DownloadTask implements Runnable {
                 }
             }
         }
+        return false;
+    }
+
+    /**
+     * 返回的区间必须从请求的起点开始且不超过请求的终点，否则写入位置会错位
+     */
+    private static void checkContentRange(Header contentRange, long blockStart, long blockEnd) throws IOException {
+        if (contentRange == null) {
+            return;
+        }
+        Matcher matcher = CONTENT_RANGE_PATTERN.matcher(contentRange.getValue());
+        if (!matcher.find()) {
+            throw new IOException("invalid Content-Range " + contentRange.getValue());
+        }
+        long rangeStart = Long.parseLong(matcher.group(1));
+        long rangeEnd = Long.parseLong(matcher.group(2));
+        if (rangeStart != blockStart || rangeEnd > blockEnd || rangeEnd < rangeStart) {
+            throw new IOException("Content-Range " + contentRange.getValue() + " mismatch request " + blockStart + "-" + blockEnd);
+        }
     }
 
     private long readDownloadedBytesFromProgressFile() {
@@ -136,10 +204,43 @@ public class DownloadTask implements Runnable {
         return downloadedBytes;
     }
 
+    /**
+     * 停止下载，当前读取结束后退出，进度文件保留
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    public AdaptiveRangeSizer getRangeSizer() {
+        return rangeSizer;
+    }
+
+    public boolean isResourceChanged() {
+        return resourceChanged;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
     public long getIncrementDownloadBytes() {
         return incrementDownloadBytes;
     }
 
+    /**
+     * 连接池大小按并发连接数设置，proxyHost 为空时直连
+     */
+    public static CloseableHttpClient createPooledHttpClient(String proxyHost, int proxyPort, int maxConnections) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        HttpClientBuilder builder = HttpClients.custom().setConnectionManager(connectionManager);
+        if (proxyHost != null && proxyPort > 0) {
+            builder.setRoutePlanner(new DefaultProxyRoutePlanner(new HttpHost(proxyHost, proxyPort)));
+        }
+        return builder.build();
+    }
+
     public static CloseableHttpClient createHttpClientWithProxy(String proxyHost, int proxyPort) {
         HttpHost proxy = new HttpHost(proxyHost, proxyPort);
         DefaultProxyRoutePlanner routePlanner = new DefaultProxyRoutePlanner(proxy);
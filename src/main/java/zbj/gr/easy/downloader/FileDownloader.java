@@ -1,13 +1,13 @@
 package zbj.gr.easy.downloader;
 
-
 import cn.hutool.core.io.FileUtil;
+import cn.hutool.crypto.digest.DigestUtil;
 import org.apache.commons.io.FileUtils;
-import org.apache.http.HttpResponse;
+import org.apache.http.Header;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -30,17 +31,33 @@ public class FileDownloader {
     private final String proxyHost;
     private final int proxyPort;
     private final int threadCount;
+    private final long minBlockSize;
+    private final long maxBlockSize;
     private final CloseableHttpClient httpClient;
+    private final ExecutorService segmentExecutor;
+    private volatile List<DownloadTask> tasks = new ArrayList<>();
+    private volatile long fileSize = -1;
+    private volatile String entityTag;
+    private volatile boolean stopped;
     private long startTime; // 新增成员变量
     private static final Logger logger = LoggerFactory.getLogger(FileDownloader.class);
 
     private FileDownloader(Builder builder) {
         this.url = builder.url;
-        this.savePath = builder.savePath != null ? builder.savePath : extractFileNameFromUrl(builder.url);
+        if (builder.savePath != null) {
+            this.savePath = builder.savePath;
+        } else if (builder.saveDir != null) {
+            this.savePath = new File(builder.saveDir, extractFileNameFromUrl(builder.url)).getPath();
+        } else {
+            this.savePath = extractFileNameFromUrl(builder.url);
+        }
         this.proxyHost = builder.proxyHost;
         this.proxyPort = builder.proxyPort;
         this.threadCount = builder.threadCount;
+        this.minBlockSize = builder.minBlockSize;
+        this.maxBlockSize = builder.maxBlockSize;
         this.httpClient = builder.httpClient;
+        this.segmentExecutor = builder.segmentExecutor;
     }
 
     // 新增静态方法，用于获取 Builder 实例
@@ -51,10 +68,14 @@ public class FileDownloader {
     public static class Builder {
         private String url;
         private String savePath;
+        private String saveDir;
         private String proxyHost;
         private int proxyPort = 0;
         private int threadCount = 8;
+        private long minBlockSize = AdaptiveRangeSizer.DEFAULT_MIN_BLOCK_SIZE;
+        private long maxBlockSize = AdaptiveRangeSizer.DEFAULT_MAX_BLOCK_SIZE;
         private CloseableHttpClient httpClient;
+        private ExecutorService segmentExecutor;
 
         public Builder url(String url) {
             this.url = url;
@@ -66,6 +87,14 @@ public class FileDownloader {
             return this;
         }
 
+        /**
+         * 未指定 savePath 时，保存到该目录下，文件名取自 url
+         */
+        public Builder saveDir(String saveDir) {
+            this.saveDir = saveDir;
+            return this;
+        }
+
         public Builder proxy(String host, int port) {
             this.proxyHost = host;
             this.proxyPort = port;
@@ -77,64 +106,131 @@ public class FileDownloader {
             return this;
         }
 
+        /**
+         * 单次 Range 请求大小的上下限，实际大小按每个连接的吞吐和 RTT 自适应
+         */
+        public Builder blockSizeRange(long minBlockSize, long maxBlockSize) {
+            this.minBlockSize = minBlockSize;
+            this.maxBlockSize = maxBlockSize;
+            return this;
+        }
+
+        /**
+         * 复用外部 HttpClient（如常驻进程中预热好的连接池），此时 proxy 设置不生效
+         */
+        public Builder httpClient(CloseableHttpClient httpClient) {
+            this.httpClient = httpClient;
+            return this;
+        }
+
+        /**
+         * 复用外部线程池执行分块下载，不指定时每次下载新建线程池
+         */
+        public Builder segmentExecutor(ExecutorService segmentExecutor) {
+            this.segmentExecutor = segmentExecutor;
+            return this;
+        }
+
         public FileDownloader build() {
-            // 创建HttpClient
-            if (proxyHost != null && proxyPort > 0) {
-                httpClient = DownloadTask.createHttpClientWithProxy(proxyHost, proxyPort);
-            } else {
-                httpClient = HttpClients.createDefault();
+            if (minBlockSize <= 0 || maxBlockSize < minBlockSize) {
+                throw new IllegalArgumentException("Invalid block size range: " + minBlockSize + "-" + maxBlockSize);
+            }
+            // 创建HttpClient，连接数与线程数匹配（默认客户端每个 host 只有 2 个连接）
+            if (httpClient == null) {
+                httpClient = DownloadTask.createPooledHttpClient(proxyHost, proxyPort, threadCount + 1);
             }
             return new FileDownloader(this);
         }
     }
 
-    public void download() {
+    /**
+     * 获取远端文件大小，失败返回 -1；成功后 {@link #download()} 直接沿用本次结果，不再重复探测
+     */
+    public long fetchFileSize() {
+        HttpGet request = new HttpGet(url);
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(5000)    // 连接超时（毫秒）
+                .setSocketTimeout(10000)    // Socket 超时（毫秒）
+                .build();
+        request.setConfig(requestConfig);
+        // 只取响应头，关闭响应以归还连接，避免占用连接池
+        try (CloseableHttpResponse response = httpClient.execute(request)) {
+            // 弱 ETag 不能用于 If-Range
+            Header etagHeader = response.getFirstHeader("ETag");
+            entityTag = etagHeader != null && !etagHeader.getValue().startsWith("W/") ? etagHeader.getValue() : null;
+            fileSize = response.getEntity().getContentLength();
+            return fileSize;
+        } catch (IOException e) {
+            logger.error("Failed to get file size||url={}", url, e);
+            return -1;
+        }
+    }
+
+    /**
+     * @return 所有分块下载成功且文件大小与远端一致时返回 true
+     */
+    public boolean download() {
         startTime = System.currentTimeMillis(); // 记录开始时间
+        List<RandomAccessFile> randomAccessFileList = new ArrayList<>();
+        ScheduledExecutorService scheduler = null;
         try {
-            HttpGet request = new HttpGet(url);
-            RequestConfig requestConfig = RequestConfig.custom()
-                    .setConnectTimeout(5000)    // 连接超时（毫秒）
-                    .setSocketTimeout(10000)    // Socket 超时（毫秒）
-                    .build();
-            request.setConfig(requestConfig);
-            HttpResponse response = httpClient.execute(request);
-            long fileSize = response.getEntity().getContentLength();
+            // 之前探测过则沿用，远端在此期间变化时由 If-Range 和 Content-Range 校验发现
+            long fileSize = this.fileSize >= 0 ? this.fileSize : fetchFileSize();
             if (fileSize == -1) {
                 throw new IOException("Failed to get file size");
             }
 
             // 初始化保存路径和进度目录
             File outputFile = new File(savePath);
-            File progressDir = new File("download_progress/" + getFileName(url));
+            File parentDir = outputFile.getAbsoluteFile().getParentFile();
+            if (!parentDir.exists() && !parentDir.mkdirs()) {
+                throw new IOException("Failed to create save dir " + parentDir.getAbsolutePath());
+            }
+            File progressDir = getProgressDir();
             if (!progressDir.exists()) {
                 progressDir.mkdirs();
             }
 
             // 检查线程数是否变化，清理旧数据
             checkAndCleanThreadCount(progressDir, outputFile);
+            // 检查远端文件是否变化，清理旧数据
+            checkAndCleanEntityTag(progressDir, outputFile);
 
             // 分配下载任务
-            ExecutorService downloadExecutor = Executors.newFixedThreadPool(threadCount);
             List<DownloadTask> tasks = new ArrayList<>();
+            List<Future<?>> futureList = new ArrayList<>();
             long chunkSize = fileSize / threadCount;
             for (int i = 0; i < threadCount; i++) {
                 long start = i * chunkSize;
                 long end = (i == threadCount - 1) ? fileSize - 1 : (i + 1) * chunkSize - 1;
                 File progressFile = new File(progressDir, "block_" + i + ".progress");
+                RandomAccessFile randomAccessFile = new RandomAccessFile(outputFile, "rw");
+                randomAccessFileList.add(randomAccessFile);
                 DownloadTask task = new DownloadTask(
                         httpClient,
                         url,
-                        new RandomAccessFile(outputFile, "rw"),
+                        randomAccessFile,
                         start,
                         end,
-                        progressFile
+                        progressFile,
+                        new AdaptiveRangeSizer(minBlockSize, maxBlockSize),
+                        entityTag
                 );
                 tasks.add(task);
-                downloadExecutor.submit(task);
+            }
+            this.tasks = tasks;
+            if (stopped) {
+                logger.info("Download stopped before start: {}", url);
+                return false;
+            }
+            boolean ownExecutor = segmentExecutor == null;
+            ExecutorService downloadExecutor = ownExecutor ? Executors.newFixedThreadPool(threadCount) : segmentExecutor;
+            for (DownloadTask task : tasks) {
+                futureList.add(downloadExecutor.submit(task));
             }
 
             // 启动进度监控
-            ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+            scheduler = Executors.newScheduledThreadPool(1);
             scheduler.scheduleAtFixedRate(() -> {
                 long total = tasks.stream().mapToLong(DownloadTask::getDownloadedBytes).sum();
                 long incrementTotal = tasks.stream().mapToLong(DownloadTask::getIncrementDownloadBytes).sum();
@@ -149,17 +245,87 @@ public class FileDownloader {
             }, 0, 1, TimeUnit.SECONDS);
 
             // 等待下载完成
-            downloadExecutor.shutdown();
-            downloadExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-            scheduler.shutdown();
+            if (ownExecutor) {
+                downloadExecutor.shutdown();
+                downloadExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } else {
+                for (Future<?> future : futureList) {
+                    future.get();
+                }
+            }
+            logRangeSizeStats(tasks);
+            boolean allCompleted = tasks.stream().allMatch(DownloadTask::isCompleted);
+            if (stopped) {
+                logger.info("Download stopped: {}, progress kept for resume", url);
+                return false;
+            }
+            if (tasks.stream().anyMatch(DownloadTask::isResourceChanged)) {
+                logger.error("Remote file changed during download, discard local data||url={}", url);
+                FileUtil.del(progressDir);
+                outputFile.delete();
+                return false;
+            }
+            if (!allCompleted || outputFile.length() != fileSize) {
+                logger.error("Download incomplete||url={}||fileSize={}||localSize={}", url, fileSize, outputFile.length());
+                return false;
+            }
             logger.info("Download completed: {} → {}", url, savePath);
             FileUtil.del(progressDir);
+            return true;
         } catch (Exception e) {
             logger.error("Download failed||url={}", url, e);
+            return false;
+        } finally {
+            if (scheduler != null) {
+                scheduler.shutdown();
+            }
+            for (RandomAccessFile randomAccessFile : randomAccessFileList) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close file {}", savePath, e);
+                }
+            }
         }
     }
 
-    private String extractFileNameFromUrl(String url) {
+    /**
+     * 停止下载，保留进度文件。停止后的实例不能再次下载，用相同的 url 和保存路径新建实例即可从进度文件断点续传
+     */
+    public void stop() {
+        stopped = true;
+        tasks.forEach(DownloadTask::stop);
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public long getDownloadedBytes() {
+        return tasks.stream().mapToLong(DownloadTask::getDownloadedBytes).sum();
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getSavePath() {
+        return savePath;
+    }
+
+    /**
+     * 分块进度文件所在目录，下载成功后删除，中断后保留用于续传。
+     * 按保存路径区分，同名文件保存到不同目录（或同一 url 下载到两处）时进度互不影响
+     */
+    public File getProgressDir() {
+        String savePathHash = DigestUtil.md5Hex(new File(savePath).getAbsolutePath()).substring(0, 16);
+        return new File("download_progress", getFileName(url) + "_" + savePathHash);
+    }
+
+    /**
+     * 未指定 savePath 时使用的文件名，即 url 路径的最后一段
+     */
+    public static String extractFileNameFromUrl(String url) {
         try {
             return Paths.get(new java.net.URL(url).getPath()).getFileName().toString();
         } catch (Exception e) {
@@ -190,6 +356,49 @@ public class FileDownloader {
         }
     }
 
+    private void logRangeSizeStats(List<DownloadTask> tasks) {
+        long requestCount = 0;
+        long requestedBytes = 0;
+        for (int i = 0; i < tasks.size(); i++) {
+            AdaptiveRangeSizer sizer = tasks.get(i).getRangeSizer();
+            requestCount += sizer.getRequestCount();
+            requestedBytes += sizer.getRequestedBytes();
+            logger.debug("Range size of {} block {}||requests={}||min={}||max={}||last={}||rtt={}ms||throughput={}",
+                    savePath, i, sizer.getRequestCount(),
+                    FileSizeFormatter.formatFileSize(sizer.getMinChosenSize()),
+                    FileSizeFormatter.formatFileSize(sizer.getMaxChosenSize()),
+                    FileSizeFormatter.formatFileSize(sizer.getCurrentBlockSize()),
+                    String.format("%.1f", sizer.getRttMillis()),
+                    FileSizeFormatter.formatSpeed(Math.max(0, sizer.getThroughputBytesPerSecond())));
+        }
+        long minSize = tasks.stream().mapToLong(t -> t.getRangeSizer().getMinChosenSize()).filter(size -> size > 0).min().orElse(0);
+        long maxSize = tasks.stream().mapToLong(t -> t.getRangeSizer().getMaxChosenSize()).max().orElse(0);
+        logger.info("Range size stats {}||requests={}||avg={}||min={}||max={}", savePath, requestCount,
+                FileSizeFormatter.formatFileSize(requestCount == 0 ? 0 : requestedBytes / requestCount),
+                FileSizeFormatter.formatFileSize(minSize),
+                FileSizeFormatter.formatFileSize(maxSize));
+    }
+
+    private void checkAndCleanEntityTag(File progressDir, File outputFile) {
+        File entityTagFile = new File(progressDir, "etag");
+        try {
+            if (entityTagFile.exists()) {
+                String oldEntityTag = FileUtils.readFileToString(entityTagFile, StandardCharsets.UTF_8.name());
+                if (!oldEntityTag.equals(String.valueOf(entityTag))) {
+                    logger.warn("ETag changed from {} to {}, cleaning old data", oldEntityTag, entityTag);
+                    for (File file : progressDir.listFiles()) {
+                        file.delete();
+                    }
+                    outputFile.delete();
+                    FileUtils.writeStringToFile(new File(progressDir, "thread_count"), String.valueOf(threadCount));
+                }
+            }
+            FileUtils.writeStringToFile(entityTagFile, String.valueOf(entityTag));
+        } catch (IOException e) {
+            logger.error("Failed to check etag", e);
+        }
+    }
+
     private double calculateSpeed(long total) {
         long elapsedTime = (System.currentTimeMillis() - startTime) / 1000;
         if (elapsedTime <= 0) {
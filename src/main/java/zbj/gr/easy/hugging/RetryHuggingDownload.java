@@ -110,11 +110,14 @@ public class RetryHuggingDownload {
         return values.toArray(new String[0]);
     }
 
-    public void downloadHuggingWholeRepo(String repoPath, File saveDir) {
-        downloadHuggingWholeRepo(repoPath, saveDir, null);
+    public boolean downloadHuggingWholeRepo(String repoPath, File saveDir) {
+        return downloadHuggingWholeRepo(repoPath, saveDir, null);
     }
 
-    public void downloadHuggingWholeRepo(String repoPath, File saveDir, String includeGlobPattern) {
+    /**
+     * @return 下载命令成功结束时返回 true；启动后速度过慢或检测异常而退出时返回 false
+     */
+    public boolean downloadHuggingWholeRepo(String repoPath, File saveDir, String includeGlobPattern) {
         if (!saveDir.exists() || !saveDir.isDirectory()) {
             Assert.isTrue(saveDir.mkdirs(), String.format("failed to create %s dir", saveDir.getAbsolutePath()));
         }
@@ -125,6 +128,7 @@ public class RetryHuggingDownload {
         }
         ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(4);
         AtomicBoolean shouldStop = new AtomicBoolean(false);
+        AtomicBoolean finished = new AtomicBoolean(false);
         Consumer<String> stringConsumer = str -> {
             LOGGER.info("repoPath {} download info {}", repoPath, saveDir);
         };
@@ -166,6 +170,7 @@ public class RetryHuggingDownload {
                         TimeUnit.DAYS.toMillis(1), stringConsumer);
                 if (result.isSuccess()) {
                     LOGGER.info("repoPath {} download finished||savePath={}", repoPath, saveDir.getAbsolutePath());
+                    finished.set(true);
                     shouldStop.set(true);
                 }
             }
@@ -180,7 +185,7 @@ public class RetryHuggingDownload {
             }
             CompletableFutureUtil.shutdownGracefully(scheduledExecutorService, 30, TimeUnit.SECONDS);
         }
-
+        return finished.get();
     }
 
     public static String extractCommandProcessId(String command, long timeoutMillis) {
@@ -0,0 +1,255 @@
+package zbj.gr.easy.pipeline;
+
+import cn.hutool.core.lang.Assert;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.grw.xiaobai.util.CompletableFutureUtil;
+import com.grw.xiaobai.util.StorageUnit;
+import org.apache.commons.collections4.CollectionUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zbj.gr.easy.downloader.DownloadTask;
+import zbj.gr.easy.downloader.FileDownloader;
+import zbj.gr.easy.downloader.FileSizeFormatter;
+import zbj.gr.easy.video2x.ConvertJournal;
+import zbj.gr.easy.video2x.EnhanceJob;
+import zbj.gr.easy.video2x.EnhanceScheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 下载与视频增强流水线：每个文件下载并校验完成后立即交给 {@link EnhanceScheduler}，
+ * 网络和 gpu 同时工作，总耗时趋近两个阶段中较慢的那个。
+ * 已下载但尚未增强完成的原始文件总大小受 maxInFlightBytes 限制，超过时后续下载等待。
+ */
+public class DownloadEnhancePipeline {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DownloadEnhancePipeline.class);
+    private static final long PERMIT_BYTES = StorageUnit.MB.toBytes(1);
+
+    private final List<String> urlList;
+    private final File downloadDir;
+    private final File outputDir;
+    private final int scale;
+    private final int downloadConcurrency;
+    private final int downloadThreadCount;
+    private final String proxyHost;
+    private final int proxyPort;
+    private final long maxInFlightBytes;
+    private final boolean deleteRawAfterEnhance;
+
+    private DownloadEnhancePipeline(Builder builder) {
+        this.urlList = builder.urlList;
+        this.downloadDir = builder.downloadDir;
+        this.outputDir = builder.outputDir != null ? builder.outputDir
+                : new File(builder.downloadDir.getParent(), String.format("enhanced_%s", builder.downloadDir.getName()));
+        this.scale = builder.scale;
+        this.downloadConcurrency = builder.downloadConcurrency;
+        this.downloadThreadCount = builder.downloadThreadCount;
+        this.proxyHost = builder.proxyHost;
+        this.proxyPort = builder.proxyPort;
+        this.maxInFlightBytes = builder.maxInFlightBytes;
+        this.deleteRawAfterEnhance = builder.deleteRawAfterEnhance;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private List<String> urlList = Lists.newArrayList();
+        private File downloadDir;
+        private File outputDir;
+        private int scale = 2;
+        private int downloadConcurrency = 2;
+        private int downloadThreadCount = 8;
+        private String proxyHost;
+        private int proxyPort = 0;
+        private long maxInFlightBytes = StorageUnit.MB.toBytes(50 * 1024);
+        private boolean deleteRawAfterEnhance = false;
+
+        public Builder urlList(List<String> urlList) {
+            this.urlList = urlList;
+            return this;
+        }
+
+        public Builder downloadDir(File downloadDir) {
+            this.downloadDir = downloadDir;
+            return this;
+        }
+
+        public Builder outputDir(File outputDir) {
+            this.outputDir = outputDir;
+            return this;
+        }
+
+        public Builder scale(int scale) {
+            this.scale = scale;
+            return this;
+        }
+
+        /**
+         * 同时下载的文件数
+         */
+        public Builder downloadConcurrency(int downloadConcurrency) {
+            this.downloadConcurrency = downloadConcurrency;
+            return this;
+        }
+
+        /**
+         * 单个文件的下载线程数
+         */
+        public Builder downloadThreadCount(int downloadThreadCount) {
+            this.downloadThreadCount = downloadThreadCount;
+            return this;
+        }
+
+        public Builder proxy(String host, int port) {
+            this.proxyHost = host;
+            this.proxyPort = port;
+            return this;
+        }
+
+        /**
+         * 已下载未增强完成的原始文件总大小上限，单个文件超过上限时独占全部额度
+         */
+        public Builder maxInFlightBytes(long maxInFlightBytes) {
+            this.maxInFlightBytes = maxInFlightBytes;
+            return this;
+        }
+
+        public Builder deleteRawAfterEnhance(boolean deleteRawAfterEnhance) {
+            this.deleteRawAfterEnhance = deleteRawAfterEnhance;
+            return this;
+        }
+
+        public DownloadEnhancePipeline build() {
+            Assert.isTrue(CollectionUtils.isNotEmpty(urlList), "url list is empty");
+            Assert.notNull(downloadDir, "download dir is null");
+            Assert.isTrue(maxInFlightBytes >= PERMIT_BYTES, "max in flight bytes too small");
+            // 原始文件和增强结果都按 url 文件名存放，同名文件会互相覆盖并共用同一条任务日志
+            Set<String> fileNameSet = Sets.newHashSet();
+            for (String url : urlList) {
+                String fileName = FileDownloader.extractFileNameFromUrl(url);
+                Assert.isTrue(fileNameSet.add(fileName), String.format("duplicate file name %s in url list||url=%s", fileName, url));
+            }
+            return new DownloadEnhancePipeline(this);
+        }
+    }
+
+    /**
+     * 阻塞直到所有文件下载并增强结束
+     *
+     * @return [成功数, 失败数]
+     */
+    public int[] run() {
+        if (!downloadDir.exists() || !downloadDir.isDirectory()) {
+            Assert.isTrue(downloadDir.mkdirs(), String.format("failed to create download dir %s", downloadDir.getAbsolutePath()));
+        }
+        if (!outputDir.exists() || !outputDir.isDirectory()) {
+            Assert.isTrue(outputDir.mkdirs(), String.format("failed to create output dir %s", outputDir.getAbsolutePath()));
+        }
+        ConvertJournal journal = ConvertJournal.load(outputDir);
+        EnhanceScheduler scheduler = new EnhanceScheduler(EnhanceScheduler.defaultCapacity());
+        int maxPermits = (int) Math.min(Integer.MAX_VALUE, maxInFlightBytes / PERMIT_BYTES);
+        Semaphore diskBudget = new Semaphore(maxPermits);
+        ExecutorService downloadExecutor = Executors.newFixedThreadPool(downloadConcurrency);
+        // 所有文件共用一个连接池，避免每个文件各建一个且无人关闭
+        CloseableHttpClient httpClient = DownloadTask.createPooledHttpClient(proxyHost, proxyPort,
+                downloadConcurrency * (downloadThreadCount + 1));
+        List<CompletableFuture<Boolean>> futureList = Lists.newArrayList();
+        scheduler.start();
+        try {
+            for (String url : urlList) {
+                CompletableFuture<Boolean> future = new CompletableFuture<>();
+                futureList.add(future);
+                downloadExecutor.submit(() -> {
+                    try {
+                        downloadThenSubmit(url, httpClient, journal, scheduler, diskBudget, maxPermits, future);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        future.complete(false);
+                    } catch (Exception e) {
+                        LOGGER.error("pipeline exception||url={}", url, e);
+                        future.complete(false);
+                    }
+                });
+            }
+            CompletableFuture.allOf(futureList.toArray(new CompletableFuture[0])).join();
+        } finally {
+            CompletableFutureUtil.shutdownGracefully(downloadExecutor, 10, TimeUnit.SECONDS);
+            scheduler.shutdown();
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                LOGGER.warn("close http client error", e);
+            }
+        }
+        int success = (int) futureList.stream().filter(CompletableFuture::join).count();
+        int[] result = new int[]{success, futureList.size() - success};
+        LOGGER.info("pipeline finished||success count={}||fail count={}", result[0], result[1]);
+        return result;
+    }
+
+    private void downloadThenSubmit(String url, CloseableHttpClient httpClient, ConvertJournal journal, EnhanceScheduler scheduler, Semaphore diskBudget,
+                                    int maxPermits, CompletableFuture<Boolean> future) throws InterruptedException {
+        FileDownloader downloader = FileDownloader.builder().url(url)
+                .saveDir(downloadDir.getAbsolutePath())
+                .threadCount(downloadThreadCount)
+                .httpClient(httpClient)
+                .build();
+        File rawFile = new File(downloader.getSavePath());
+        String relativePath = rawFile.getName();
+        File outputFile = new File(outputDir, relativePath);
+        if (journal.isOutputDone(relativePath, outputFile)) {
+            LOGGER.info("file {} already enhanced, skip download", relativePath);
+            future.complete(true);
+            return;
+        }
+        // 探测结果（大小和 ETag）由 download() 沿用
+        long fileSize = downloader.fetchFileSize();
+        if (fileSize < 0) {
+            future.complete(false);
+            return;
+        }
+        int permits = (int) Math.max(1, Math.min(maxPermits, (fileSize + PERMIT_BYTES - 1) / PERMIT_BYTES));
+        diskBudget.acquire(permits);
+        boolean downloaded;
+        try {
+            downloaded = downloader.download();
+        } catch (RuntimeException e) {
+            diskBudget.release(permits);
+            throw e;
+        }
+        if (!downloaded) {
+            LOGGER.error("download failed, skip enhance||url={}", url);
+            diskBudget.release(permits);
+            future.complete(false);
+            return;
+        }
+        LOGGER.info("file {} downloaded ({}), submit to enhance", relativePath, FileSizeFormatter.formatFileSize(fileSize));
+        EnhanceJob job = new EnhanceJob(rawFile, outputFile, relativePath, journal, scale, success -> {
+            if (success && deleteRawAfterEnhance) {
+                LOGGER.info("delete raw file {}", rawFile.getAbsolutePath());
+                rawFile.delete();
+            }
+            diskBudget.release(permits);
+            future.complete(success);
+        });
+        // 增强队列满时阻塞，下载随之暂停
+        try {
+            scheduler.submit(job);
+        } catch (InterruptedException e) {
+            diskBudget.release(permits);
+            throw e;
+        }
+    }
+}
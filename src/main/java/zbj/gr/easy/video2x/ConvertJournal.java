@@ -0,0 +1,239 @@
+package zbj.gr.easy.video2x;
+
+import com.alibaba.fastjson.JSON;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 视频增强任务日志，持久化在输出目录下，记录每个文件的转换状态。
+ * 重启批任务时据此跳过已完成的文件，只处理剩余部分。
+ */
+public class ConvertJournal {
+    public static final String JOURNAL_FILE_NAME = ".video2x_journal.json";
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConvertJournal.class);
+
+    private final File journalFile;
+    private final Map<String, JobEntry> relativePath2EntryMap = Maps.newTreeMap();
+
+    public enum JobState {
+        PENDING, RUNNING, DONE, FAILED
+    }
+
+    public static class JobEntry {
+        private String relativePath;
+        private JobState state;
+        private long inputSize;
+        private long inputLastModified;
+        private long outputSize;
+        private String outputMd5;
+        private long elapsedMillis;
+        private int attempts;
+        private long updateTime;
+
+        public String getRelativePath() {
+            return relativePath;
+        }
+
+        public void setRelativePath(String relativePath) {
+            this.relativePath = relativePath;
+        }
+
+        public JobState getState() {
+            return state;
+        }
+
+        public void setState(JobState state) {
+            this.state = state;
+        }
+
+        public long getInputSize() {
+            return inputSize;
+        }
+
+        public void setInputSize(long inputSize) {
+            this.inputSize = inputSize;
+        }
+
+        public long getInputLastModified() {
+            return inputLastModified;
+        }
+
+        public void setInputLastModified(long inputLastModified) {
+            this.inputLastModified = inputLastModified;
+        }
+
+        public long getOutputSize() {
+            return outputSize;
+        }
+
+        public void setOutputSize(long outputSize) {
+            this.outputSize = outputSize;
+        }
+
+        public String getOutputMd5() {
+            return outputMd5;
+        }
+
+        public void setOutputMd5(String outputMd5) {
+            this.outputMd5 = outputMd5;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public void setElapsedMillis(long elapsedMillis) {
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public void setAttempts(int attempts) {
+            this.attempts = attempts;
+        }
+
+        public long getUpdateTime() {
+            return updateTime;
+        }
+
+        public void setUpdateTime(long updateTime) {
+            this.updateTime = updateTime;
+        }
+    }
+
+    private ConvertJournal(File journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    public static ConvertJournal load(File outputDir) {
+        ConvertJournal journal = new ConvertJournal(new File(outputDir, JOURNAL_FILE_NAME));
+        if (!journal.journalFile.exists()) {
+            return journal;
+        }
+        try {
+            String content = FileUtils.readFileToString(journal.journalFile, StandardCharsets.UTF_8.name());
+            List<JobEntry> entryList = StringUtils.isBlank(content) ? null : JSON.parseArray(content, JobEntry.class);
+            if (entryList != null) {
+                entryList.forEach(entry -> journal.relativePath2EntryMap.put(entry.getRelativePath(), entry));
+            }
+            LOGGER.info("load convert journal {}||entry count={}", journal.journalFile.getAbsolutePath(), journal.relativePath2EntryMap.size());
+        } catch (Exception e) {
+            LOGGER.error("failed to load convert journal {}, start from scratch", journal.journalFile.getAbsolutePath(), e);
+        }
+        return journal;
+    }
+
+    /**
+     * 输入文件未变化、状态为 DONE 且输出文件完整时视为已完成
+     */
+    public synchronized boolean isFinished(String relativePath, File inputFile, File outputFile) {
+        JobEntry entry = relativePath2EntryMap.get(relativePath);
+        return entry != null && entry.getState() == JobState.DONE
+                && isSameInput(entry, inputFile)
+                && outputFile.exists() && outputFile.length() == entry.getOutputSize();
+    }
+
+    /**
+     * 不校验输入文件，供输入文件已被删除的场景使用（如下载后增强并删除原文件）
+     */
+    public synchronized boolean isOutputDone(String relativePath, File outputFile) {
+        JobEntry entry = relativePath2EntryMap.get(relativePath);
+        return entry != null && entry.getState() == JobState.DONE
+                && outputFile.exists() && outputFile.length() == entry.getOutputSize();
+    }
+
+    /**
+     * 同一输入文件剩余的转换次数。尝试次数会持久化，重启后不会重新计数；输入文件变化时由 register 重置
+     */
+    public synchronized int remainingAttempts(String relativePath, int maxAttempts) {
+        JobEntry entry = relativePath2EntryMap.get(relativePath);
+        return entry == null ? maxAttempts : Math.max(0, maxAttempts - entry.getAttempts());
+    }
+
+    /**
+     * 登记待转换文件，输入文件有变化或已完成的输出丢失时重置记录；上次中断遗留的 RUNNING 状态回退为 PENDING
+     */
+    public synchronized JobEntry register(String relativePath, File inputFile) {
+        JobEntry entry = relativePath2EntryMap.get(relativePath);
+        if (entry == null || !isSameInput(entry, inputFile)) {
+            entry = new JobEntry();
+            entry.setRelativePath(relativePath);
+            entry.setInputSize(inputFile.length());
+            entry.setInputLastModified(inputFile.lastModified());
+            entry.setState(JobState.PENDING);
+            relativePath2EntryMap.put(relativePath, entry);
+        } else if (entry.getState() == JobState.DONE) {
+            LOGGER.warn("output of file {} is missing or changed, reconvert it", relativePath);
+            entry.setState(JobState.PENDING);
+            entry.setAttempts(0);
+        } else if (entry.getState() == JobState.RUNNING) {
+            LOGGER.warn("file {} was interrupted last time, reconvert it", relativePath);
+            entry.setState(JobState.PENDING);
+        }
+        entry.setUpdateTime(System.currentTimeMillis());
+        persist();
+        return entry;
+    }
+
+    public synchronized void markRunning(String relativePath) {
+        JobEntry entry = relativePath2EntryMap.get(relativePath);
+        entry.setState(JobState.RUNNING);
+        entry.setAttempts(entry.getAttempts() + 1);
+        entry.setUpdateTime(System.currentTimeMillis());
+        persist();
+    }
+
+    public synchronized void markDone(String relativePath, File outputFile, String outputMd5, long elapsedMillis) {
+        JobEntry entry = relativePath2EntryMap.get(relativePath);
+        entry.setState(JobState.DONE);
+        entry.setOutputSize(outputFile.length());
+        entry.setOutputMd5(outputMd5);
+        entry.setElapsedMillis(elapsedMillis);
+        entry.setUpdateTime(System.currentTimeMillis());
+        persist();
+    }
+
+    public synchronized void markFailed(String relativePath, long elapsedMillis) {
+        JobEntry entry = relativePath2EntryMap.get(relativePath);
+        entry.setState(JobState.FAILED);
+        entry.setElapsedMillis(elapsedMillis);
+        entry.setUpdateTime(System.currentTimeMillis());
+        persist();
+    }
+
+    public synchronized JobEntry getEntry(String relativePath) {
+        return relativePath2EntryMap.get(relativePath);
+    }
+
+    private boolean isSameInput(JobEntry entry, File inputFile) {
+        return entry.getInputSize() == inputFile.length() && entry.getInputLastModified() == inputFile.lastModified();
+    }
+
+    /**
+     * 先写临时文件再原子替换，避免进程崩溃时留下半截日志
+     */
+    private void persist() {
+        File tmpFile = new File(journalFile.getParentFile(), journalFile.getName() + ".tmp");
+        try {
+            List<JobEntry> entryList = Lists.newArrayList(relativePath2EntryMap.values());
+            FileUtils.writeStringToFile(tmpFile, JSON.toJSONString(entryList, true), StandardCharsets.UTF_8.name());
+            Files.move(tmpFile.toPath(), journalFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOGGER.error("failed to persist convert journal {}", journalFile.getAbsolutePath(), e);
+        }
+    }
+}
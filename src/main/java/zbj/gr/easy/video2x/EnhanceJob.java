@@ -0,0 +1,85 @@
+package zbj.gr.easy.video2x;
+
+import java.io.File;
+import java.util.Comparator;
+import java.util.function.Consumer;
+
+/**
+ * 提交给 {@link EnhanceScheduler} 的单个视频增强任务
+ */
+public class EnhanceJob {
+    /**
+     * 预估工作量大的任务优先（以输入文件大小估算），相同时先到先处理
+     */
+    public static final Comparator<EnhanceJob> LONGEST_FIRST = Comparator.comparingLong(EnhanceJob::getEstimatedWork).reversed()
+            .thenComparingLong(EnhanceJob::getReadyTime);
+
+    private final File inputFile;
+    private final File outputFile;
+    private final String relativePath;
+    private final ConvertJournal journal;
+    private final int scale;
+    private final long readyTime;
+    private final long estimatedWork;
+    private final Consumer<Boolean> completeCallback;
+    private int attempts;
+
+    public EnhanceJob(File inputFile, File outputFile, String relativePath, ConvertJournal journal, int scale) {
+        this(inputFile, outputFile, relativePath, journal, scale, null);
+    }
+
+    /**
+     * @param completeCallback 任务最终结束（成功或重试耗尽）时回调，参数为是否成功，可为 null
+     */
+    public EnhanceJob(File inputFile, File outputFile, String relativePath, ConvertJournal journal, int scale,
+                      Consumer<Boolean> completeCallback) {
+        this.inputFile = inputFile;
+        this.outputFile = outputFile;
+        this.relativePath = relativePath;
+        this.journal = journal;
+        this.scale = scale;
+        this.readyTime = System.currentTimeMillis();
+        this.estimatedWork = inputFile.length();
+        this.completeCallback = completeCallback;
+    }
+
+    public File getInputFile() {
+        return inputFile;
+    }
+
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    public String getRelativePath() {
+        return relativePath;
+    }
+
+    public ConvertJournal getJournal() {
+        return journal;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public long getReadyTime() {
+        return readyTime;
+    }
+
+    public long getEstimatedWork() {
+        return estimatedWork;
+    }
+
+    public Consumer<Boolean> getCompleteCallback() {
+        return completeCallback;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    void incrementAttempts() {
+        attempts++;
+    }
+}
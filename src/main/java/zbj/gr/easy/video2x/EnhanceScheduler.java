@@ -0,0 +1,176 @@
+package zbj.gr.easy.video2x;
+
+import cn.hutool.core.lang.Assert;
+import com.grw.xiaobai.util.CompletableFutureUtil;
+import org.apache.commons.collections4.CollectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 设备调度器：有界优先队列 + 每个 gpu 槽位一个常驻 worker，持续消费增强任务。
+ * 默认按预估工作量从大到小调度，卡死被杀掉的任务重新入队。
+ * 队列容量包含正在执行的任务，队列满时 {@link #submit} 阻塞，{@link #offer} 返回 false，以此向上游施加背压。
+ */
+public class EnhanceScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EnhanceScheduler.class);
+    private static final long POLL_TIMEOUT_SECONDS = 1;
+
+    private final int capacity;
+    private final PriorityBlockingQueue<EnhanceJob> jobQueue;
+    private final Semaphore capacitySemaphore;
+    private final AtomicInteger successAtomic = new AtomicInteger();
+    private final AtomicInteger failAtomic = new AtomicInteger();
+    private ExecutorService workerExecutor;
+    private volatile boolean running;
+
+    public EnhanceScheduler(int capacity) {
+        this(capacity, EnhanceJob.LONGEST_FIRST);
+    }
+
+    public EnhanceScheduler(int capacity, Comparator<EnhanceJob> jobComparator) {
+        Assert.isTrue(capacity > 0, "capacity must be positive");
+        this.capacity = capacity;
+        this.jobQueue = new PriorityBlockingQueue<>(capacity, jobComparator);
+        this.capacitySemaphore = new Semaphore(capacity);
+    }
+
+    /**
+     * 默认容量：gpu 槽位数的两倍，保证每个槽位执行完总有下一个任务可取
+     */
+    public static int defaultCapacity() {
+        return Math.max(1, VideoEnhance.gpuIndexList().size() * VideoEnhance.SINGLE_GPU_MAX_TASK_NUM * 2);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        List<Integer> gpuIndexList = VideoEnhance.gpuIndexList();
+        Assert.isTrue(CollectionUtils.isNotEmpty(gpuIndexList), "no gpu");
+        int workerNum = gpuIndexList.size() * VideoEnhance.SINGLE_GPU_MAX_TASK_NUM;
+        running = true;
+        workerExecutor = Executors.newFixedThreadPool(workerNum);
+        for (int i = 0; i < workerNum; i++) {
+            workerExecutor.submit(this::workLoop);
+        }
+        LOGGER.info("enhance scheduler started||worker num={}||capacity={}", workerNum, capacity);
+    }
+
+    /**
+     * 提交任务，队列已满时阻塞等待
+     */
+    public void submit(EnhanceJob job) throws InterruptedException {
+        capacitySemaphore.acquire();
+        jobQueue.put(job);
+    }
+
+    /**
+     * 提交任务，队列已满且超时仍无空位时返回 false
+     */
+    public boolean offer(EnhanceJob job, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!capacitySemaphore.tryAcquire(timeout, unit)) {
+            return false;
+        }
+        jobQueue.put(job);
+        return true;
+    }
+
+    public int queuedSize() {
+        return jobQueue.size();
+    }
+
+    public int inFlightSize() {
+        return capacity - capacitySemaphore.availablePermits();
+    }
+
+    public int getSuccessCount() {
+        return successAtomic.get();
+    }
+
+    public int getFailCount() {
+        return failAtomic.get();
+    }
+
+    public synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        CompletableFutureUtil.shutdownGracefully(workerExecutor, 10, TimeUnit.SECONDS);
+        LOGGER.info("enhance scheduler stopped||success count={}||fail count={}||left in queue={}",
+                successAtomic.get(), failAtomic.get(), jobQueue.size());
+    }
+
+    private void workLoop() {
+        while (running) {
+            EnhanceJob job;
+            try {
+                job = jobQueue.poll(POLL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (job == null) {
+                continue;
+            }
+            try {
+                runJob(job);
+            } catch (Exception e) {
+                LOGGER.error("run enhance job {} exception", job.getRelativePath(), e);
+                complete(job, false);
+            }
+        }
+    }
+
+    private void runJob(EnhanceJob job) {
+        ConvertJournal journal = job.getJournal();
+        if (job.getAttempts() == 0) {
+            if (journal.isFinished(job.getRelativePath(), job.getInputFile(), job.getOutputFile())) {
+                LOGGER.info("file {} already converted, skip", job.getRelativePath());
+                complete(job, true);
+                return;
+            }
+            journal.register(job.getRelativePath(), job.getInputFile());
+            if (journal.remainingAttempts(job.getRelativePath(), VideoEnhance.MAX_CONVERT_ATTEMPTS) <= 0) {
+                LOGGER.warn("file {} failed {} times before, skip", job.getRelativePath(), VideoEnhance.MAX_CONVERT_ATTEMPTS);
+                complete(job, false);
+                return;
+            }
+        }
+        job.incrementAttempts();
+        boolean success = VideoEnhance.convertWithJournal(journal, job.getRelativePath(), job.getInputFile(),
+                job.getOutputFile(), job.getScale());
+        if (!success && journal.remainingAttempts(job.getRelativePath(), VideoEnhance.MAX_CONVERT_ATTEMPTS) > 0) {
+            // 重新入队而不是原地重试，让其他等待中的任务先用上设备；仍占用原有容量
+            LOGGER.warn("requeue file {}||attempts={}", job.getRelativePath(), job.getAttempts());
+            jobQueue.put(job);
+            return;
+        }
+        complete(job, success);
+    }
+
+    private void complete(EnhanceJob job, boolean success) {
+        if (success) {
+            successAtomic.incrementAndGet();
+        } else {
+            failAtomic.incrementAndGet();
+        }
+        capacitySemaphore.release();
+        if (job.getCompleteCallback() != null) {
+            try {
+                job.getCompleteCallback().accept(success);
+            } catch (Exception e) {
+                LOGGER.error("complete callback exception||file={}", job.getRelativePath(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package zbj.gr.easy.video2x;
+
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * video2x 任务进度指标，按任务和 gpu 汇总帧率、完成百分比和剩余时间，并定期输出到日志
+ */
+public class Video2xMetrics {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Video2xMetrics.class);
+    private static final long REPORT_INTERVAL_SECONDS = 30;
+    /**
+     * 未提供帧率时按相邻两次进度计算，做指数平滑
+     */
+    private static final double FPS_SMOOTH_FACTOR = 0.3;
+    private static final Map<String, JobProgress> JOB_KEY_2_PROGRESS_MAP = new ConcurrentHashMap<>();
+    private static volatile ScheduledExecutorService reportExecutor;
+
+    public static class JobProgress {
+        private final String jobKey;
+        private final String name;
+        private final int gpuIndex;
+        private final long startTime;
+        private volatile long processedFrames;
+        private volatile long totalFrames;
+        private volatile double fps;
+        private volatile long lastProgressTime;
+        /**
+         * 解析到第一条进度后才开始卡死检测，避免输出格式不匹配时把正常任务当作卡死
+         */
+        private volatile boolean progressSeen;
+        private volatile boolean noProgressWarned;
+
+        JobProgress(String jobKey, String name, int gpuIndex) {
+            this.jobKey = jobKey;
+            this.name = name;
+            this.gpuIndex = gpuIndex;
+            this.startTime = System.currentTimeMillis();
+            this.lastProgressTime = startTime;
+        }
+
+        synchronized void update(Video2xProgressParser.ProgressSample sample) {
+            long now = System.currentTimeMillis();
+            if (sample.getFps() >= 0) {
+                fps = sample.getFps();
+            } else if (sample.getProcessedFrames() > processedFrames && now > lastProgressTime) {
+                double instantFps = (sample.getProcessedFrames() - processedFrames) * 1000.0 / (now - lastProgressTime);
+                fps = fps <= 0 ? instantFps : fps * (1 - FPS_SMOOTH_FACTOR) + instantFps * FPS_SMOOTH_FACTOR;
+            }
+            totalFrames = sample.getTotalFrames();
+            if (!progressSeen || sample.getProcessedFrames() != processedFrames) {
+                processedFrames = sample.getProcessedFrames();
+                lastProgressTime = now;
+            }
+            progressSeen = true;
+        }
+
+        public String getJobKey() {
+            return jobKey;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getGpuIndex() {
+            return gpuIndex;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getProcessedFrames() {
+            return processedFrames;
+        }
+
+        public long getTotalFrames() {
+            return totalFrames;
+        }
+
+        public double getFps() {
+            return fps;
+        }
+
+        public long getLastProgressTime() {
+            return lastProgressTime;
+        }
+
+        public double getPercent() {
+            return totalFrames <= 0 ? 0 : processedFrames * 100.0 / totalFrames;
+        }
+
+        /**
+         * @return 剩余秒数，尚无帧率时返回 -1
+         */
+        public long getEtaSeconds() {
+            if (totalFrames <= 0 || fps <= 0) {
+                return -1;
+            }
+            return (long) ((totalFrames - processedFrames) / fps);
+        }
+
+        public boolean isProgressSeen() {
+            return progressSeen;
+        }
+
+        public boolean isStalled(long now, long stallMillis) {
+            return progressSeen && now - lastProgressTime >= stallMillis;
+        }
+
+        /**
+         * 运行超过 stallMillis 仍未解析到进度时返回 true，每个任务只返回一次，用于提示输出格式可能不匹配
+         */
+        boolean shouldWarnNoProgress(long now, long stallMillis) {
+            if (progressSeen || noProgressWarned || now - startTime < stallMillis) {
+                return false;
+            }
+            noProgressWarned = true;
+            return true;
+        }
+    }
+
+    static JobProgress register(String jobKey, String name, int gpuIndex) {
+        ensureReporterStarted();
+        JobProgress progress = new JobProgress(jobKey, name, gpuIndex);
+        JOB_KEY_2_PROGRESS_MAP.put(jobKey, progress);
+        return progress;
+    }
+
+    static void unregister(String jobKey) {
+        JOB_KEY_2_PROGRESS_MAP.remove(jobKey);
+    }
+
+    /**
+     * 解析一行 video2x 输出并更新对应任务，返回是否为进度行
+     */
+    static boolean onOutputLine(JobProgress progress, String line) {
+        Video2xProgressParser.ProgressSample sample = Video2xProgressParser.parse(line);
+        if (sample == null) {
+            return false;
+        }
+        progress.update(sample);
+        return true;
+    }
+
+    public static List<JobProgress> snapshot() {
+        return Lists.newArrayList(JOB_KEY_2_PROGRESS_MAP.values());
+    }
+
+    public static double deviceFps(int gpuIndex) {
+        return JOB_KEY_2_PROGRESS_MAP.values().stream().filter(p -> p.getGpuIndex() == gpuIndex)
+                .mapToDouble(JobProgress::getFps).sum();
+    }
+
+    /**
+     * gpu 上所有任务预计剩余秒数之和，未知剩余时间的任务不计入
+     */
+    public static long deviceRemainingSeconds(int gpuIndex) {
+        return JOB_KEY_2_PROGRESS_MAP.values().stream().filter(p -> p.getGpuIndex() == gpuIndex)
+                .mapToLong(JobProgress::getEtaSeconds).filter(eta -> eta > 0).sum();
+    }
+
+    private static void ensureReporterStarted() {
+        if (reportExecutor != null) {
+            return;
+        }
+        synchronized (Video2xMetrics.class) {
+            if (reportExecutor != null) {
+                return;
+            }
+            reportExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "video2x-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reportExecutor.scheduleAtFixedRate(Video2xMetrics::report, REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void report() {
+        try {
+            List<JobProgress> progressList = snapshot();
+            if (progressList.isEmpty()) {
+                return;
+            }
+            Map<Integer, List<JobProgress>> gpuIndex2ProgressMap = progressList.stream()
+                    .collect(Collectors.groupingBy(JobProgress::getGpuIndex, TreeMap::new, Collectors.toList()));
+            gpuIndex2ProgressMap.forEach((gpuIndex, jobList) -> LOGGER.info("gpu {} running {} jobs||fps={}||remaining={}s",
+                    gpuIndex, jobList.size(), String.format("%.2f", deviceFps(gpuIndex)), deviceRemainingSeconds(gpuIndex)));
+            for (JobProgress progress : progressList) {
+                LOGGER.info("job {} gpu={}||frame {}/{} ({})||fps={}||eta={}s", progress.getName(), progress.getGpuIndex(),
+                        progress.getProcessedFrames(), progress.getTotalFrames(), String.format("%.2f%%", progress.getPercent()),
+                        String.format("%.2f", progress.getFps()), progress.getEtaSeconds());
+            }
+        } catch (Exception e) {
+            LOGGER.error("report video2x metrics exception", e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package zbj.gr.easy.video2x;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 解析 video2x 输出的进度行，兼容以下格式（6.x 的进度行以 \r 和 ANSI 清行序列开头）：
+ * <pre>
+ * frame=120/3000 (4.00%); fps=14.96; elapsed=00:00:08; remaining=00:03:12
+ * Processing frame 120/3000 (4.00%); time elapsed: 00:00:10; time remaining: 00:04:00
+ *  12%|█▏        | 360/3000 [00:24&lt;02:56, 14.96frame/s]
+ * </pre>
+ */
+public class Video2xProgressParser {
+    private static final Pattern ANSI_ESCAPE_PATTERN = Pattern.compile("\u001B\\[[0-9;?]*[A-Za-z]");
+    private static final Pattern FRAME_PATTERN = Pattern.compile("frame[\\s=:]*(\\d+)\\s*/\\s*(\\d+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern TQDM_PATTERN = Pattern.compile("\\|\\s*(\\d+)\\s*/\\s*(\\d+)\\s*\\[");
+    private static final Pattern FPS_KEY_VALUE_PATTERN = Pattern.compile("fps\\s*[=:]\\s*([\\d.]+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern FPS_PATTERN = Pattern.compile("([\\d.]+)\\s*(?:fps|frames?/s|it/s)", Pattern.CASE_INSENSITIVE);
+
+    public static class ProgressSample {
+        private final long processedFrames;
+        private final long totalFrames;
+        /**
+         * 输出中没有帧率时为 -1
+         */
+        private final double fps;
+
+        public ProgressSample(long processedFrames, long totalFrames, double fps) {
+            this.processedFrames = processedFrames;
+            this.totalFrames = totalFrames;
+            this.fps = fps;
+        }
+
+        public long getProcessedFrames() {
+            return processedFrames;
+        }
+
+        public long getTotalFrames() {
+            return totalFrames;
+        }
+
+        public double getFps() {
+            return fps;
+        }
+    }
+
+    /**
+     * @return 不是进度行时返回 null
+     */
+    public static ProgressSample parse(String line) {
+        if (StringUtils.isBlank(line)) {
+            return null;
+        }
+        // 进度行常以 \r 刷新，同一行可能粘连多次输出，取最后一段有效进度
+        String[] segments = ANSI_ESCAPE_PATTERN.matcher(line).replaceAll("").split("\r");
+        for (int i = segments.length - 1; i >= 0; i--) {
+            ProgressSample sample = parseSegment(segments[i]);
+            if (sample != null) {
+                return sample;
+            }
+        }
+        return null;
+    }
+
+    private static ProgressSample parseSegment(String segment) {
+        Matcher matcher = FRAME_PATTERN.matcher(segment);
+        if (!matcher.find()) {
+            matcher = TQDM_PATTERN.matcher(segment);
+            if (!matcher.find()) {
+                return null;
+            }
+        }
+        long processed = Long.parseLong(matcher.group(1));
+        long total = Long.parseLong(matcher.group(2));
+        if (total <= 0 || processed > total) {
+            return null;
+        }
+        return new ProgressSample(processed, total, parseFps(segment));
+    }
+
+    /**
+     * 优先取 fps=14.96 形式，其次取 14.96fps、14.96frame/s 形式，没有时返回 -1
+     */
+    private static double parseFps(String segment) {
+        Matcher fpsMatcher = FPS_KEY_VALUE_PATTERN.matcher(segment);
+        if (!fpsMatcher.find()) {
+            fpsMatcher = FPS_PATTERN.matcher(segment);
+            if (!fpsMatcher.find()) {
+                return -1;
+            }
+        }
+        try {
+            return Double.parseDouble(fpsMatcher.group(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
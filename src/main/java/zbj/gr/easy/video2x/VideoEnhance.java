@@ -2,6 +2,7 @@ package zbj.gr.easy.video2x;
 
 import cn.hutool.core.lang.Assert;
 import cn.hutool.core.lang.Pair;
+import cn.hutool.crypto.digest.DigestUtil;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -15,12 +16,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
@@ -35,7 +42,19 @@ public class VideoEnhance {
     private static final long SHORT_COMMAND_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
     private static final long CONVERT_SINGLE_VIDEO_TIMEOUT = TimeUnit.HOURS.toMillis(12);
     private static Map<Integer, Integer> gpuIndex2LoadMap = Maps.newTreeMap();
-    private static final int SINGLE_GPU_MAX_TASK_NUM = 3;
+    static final int SINGLE_GPU_MAX_TASK_NUM = 3;
+    static final int MAX_CONVERT_ATTEMPTS = 3;
+    private static final String PARTIAL_FILE_TAG = ".partial";
+    /**
+     * 超过该时长没有帧进度视为卡死，杀掉进程交由上层重试
+     */
+    private static final long STALL_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+    private static final long STALL_CHECK_INTERVAL_SECONDS = 30;
+    /**
+     * 等待 gpu 空闲时的最长单次等待，释放 gpu 时会提前唤醒
+     */
+    private static final long GPU_WAIT_SECONDS = 30;
+    private static volatile ScheduledExecutorService stallWatchdog;
     private static List<Pair<Integer, String>> DEVICE_LIST;
     private static final Logger LOGGER = LoggerFactory.getLogger(VideoEnhance.class);
 
@@ -86,8 +105,12 @@ public class VideoEnhance {
         return DEVICE_LIST;
     }
 
+    static List<Integer> gpuIndexList() {
+        return deviceList().stream().filter(pair -> pair.getValue().equals(GPU_TYPE)).map(Pair::getKey).collect(Collectors.toList());
+    }
+
     private static Integer acquireLowLoadGpu() {
-        List<Integer> targetGpuIndexList = deviceList().stream().filter(pair -> pair.getValue().equals(GPU_TYPE)).map(Pair::getKey).collect(Collectors.toList());
+        List<Integer> targetGpuIndexList = gpuIndexList();
         Integer targetLowLoadGpuIndex;
         synchronized (VideoEnhance.class) {
             if (MapUtils.isEmpty(gpuIndex2LoadMap)) {
@@ -98,38 +121,86 @@ public class VideoEnhance {
                 LOGGER.error("gpu load too high||single gpu max task num={}", SINGLE_GPU_MAX_TASK_NUM);
                 return null;
             } else {
-                targetLowLoadGpuIndex = gpuIndex2LoadMap.entrySet().stream().filter(var -> var.getValue() == minTaskNum).map(Map.Entry::getKey).sorted().findFirst().orElse(null);
+                // 任务数相同时选预计最先空闲的 gpu
+                targetLowLoadGpuIndex = gpuIndex2LoadMap.entrySet().stream().filter(var -> var.getValue() == minTaskNum).map(Map.Entry::getKey)
+                        .min(Comparator.comparingLong(Video2xMetrics::deviceRemainingSeconds).thenComparing(Comparator.naturalOrder())).orElse(null);
             }
             gpuIndex2LoadMap.compute(targetLowLoadGpuIndex, (k, v) -> v == null ? 1 : v + 1);
         }
         return targetLowLoadGpuIndex;
     }
 
+    /**
+     * 阻塞直到有 gpu 空闲，被中断时返回 null。各调度器共用 gpu 负载表，等待不算一次转换尝试
+     */
+    private static Integer awaitFreeGpu() {
+        if (CollectionUtils.isEmpty(gpuIndexList())) {
+            throw new RuntimeException("no gpu");
+        }
+        synchronized (VideoEnhance.class) {
+            Integer gpuIndex;
+            while ((gpuIndex = acquireLowLoadGpu()) == null) {
+                try {
+                    VideoEnhance.class.wait(TimeUnit.SECONDS.toMillis(GPU_WAIT_SECONDS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            return gpuIndex;
+        }
+    }
+
     private static void releaseGpu(int gpuIndex) {
         synchronized (VideoEnhance.class) {
             gpuIndex2LoadMap.compute(gpuIndex, (k, v) -> v - 1);
+            VideoEnhance.class.notifyAll();
         }
     }
 
     public static boolean convertSingleVideo(File inputFile, File outputFile, int scale) {
+        checkPathWithoutWhiteSpace(inputFile, outputFile);
         Integer lowLoadGpuIndex = acquireLowLoadGpu();
+        if (lowLoadGpuIndex == null) {
+            throw new RuntimeException("no free gpu");
+        }
+        try {
+            return convertOnGpu(inputFile, outputFile, scale, lowLoadGpuIndex);
+        } finally {
+            releaseGpu(lowLoadGpuIndex);
+        }
+    }
+
+    private static void checkPathWithoutWhiteSpace(File inputFile, File outputFile) {
         if (inputFile.getAbsolutePath().contains(" ") || outputFile.getAbsolutePath().contains(" ")) {
             LOGGER.error("input or output video path contains white space");
             throw new RuntimeException("path contains white space");
         }
-        if (lowLoadGpuIndex == null) {
-            throw new RuntimeException("no free gpu");
-        }
+    }
+
+    /**
+     * 在已占用的 gpu 上转换，由调用方释放 gpu
+     */
+    private static boolean convertOnGpu(File inputFile, File outputFile, int scale, int lowLoadGpuIndex) {
+        checkPathWithoutWhiteSpace(inputFile, outputFile);
         LOGGER.info("video {} use gpu device {}", inputFile.getName(), lowLoadGpuIndex);
         String convertJoinCommand = String.format("video2x -i %s -o %s -p  realesrgan -s %s  -d %s -n 1",
                 inputFile.getAbsolutePath(), outputFile.getAbsolutePath(), scale, lowLoadGpuIndex);
+        String jobKey = outputFile.getAbsolutePath();
+        Video2xMetrics.JobProgress progress = Video2xMetrics.register(jobKey, inputFile.getName(), lowLoadGpuIndex);
+        ensureStallWatchdogStarted();
         Consumer<String> consumer = var -> {
-            LOGGER.info("file {} convert data info {} || gpu index={}", inputFile.getName(), var, lowLoadGpuIndex);
+            if (Video2xMetrics.onOutputLine(progress, var)) {
+                LOGGER.debug("file {} convert progress {} || gpu index={}", inputFile.getName(), var, lowLoadGpuIndex);
+            } else {
+                LOGGER.info("file {} convert data info {} || gpu index={}", inputFile.getName(), var, lowLoadGpuIndex);
+            }
         };
         Stopwatch stopwatch = Stopwatch.createStarted();
         try {
             CommandExecutor.CommandResult result = CommandExecutor.executeCommandWithoutRefreshBash(Arrays.asList(convertJoinCommand.split("\\s+")), CONVERT_SINGLE_VIDEO_TIMEOUT, consumer);
-            LOGGER.info("convert {} total cost={}", inputFile.getName(), stopwatch.elapsed(TimeUnit.MINUTES));
+            LOGGER.info("convert {} total cost={}||frames={}||fps={}", inputFile.getName(), stopwatch.elapsed(TimeUnit.MINUTES),
+                    progress.getProcessedFrames(), String.format("%.2f", progress.getFps()));
             if (!result.isSuccess()) {
                 LOGGER.error("failed to convert file={}", inputFile.getName());
             } else {
@@ -137,7 +208,64 @@ public class VideoEnhance {
             }
             return result.isSuccess();
         } finally {
-            releaseGpu(lowLoadGpuIndex);
+            Video2xMetrics.unregister(jobKey);
+        }
+    }
+
+    private static void ensureStallWatchdogStarted() {
+        if (stallWatchdog != null) {
+            return;
+        }
+        synchronized (VideoEnhance.class) {
+            if (stallWatchdog != null) {
+                return;
+            }
+            stallWatchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "video2x-stall-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+            stallWatchdog.scheduleWithFixedDelay(VideoEnhance::killStalledJobs, STALL_CHECK_INTERVAL_SECONDS,
+                    STALL_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void killStalledJobs() {
+        try {
+            long now = System.currentTimeMillis();
+            for (Video2xMetrics.JobProgress progress : Video2xMetrics.snapshot()) {
+                if (progress.shouldWarnNoProgress(now, STALL_TIMEOUT)) {
+                    LOGGER.warn("no progress parsed from video2x output of job {}, stall detection disabled for it||gpu index={}",
+                            progress.getName(), progress.getGpuIndex());
+                }
+                if (!progress.isStalled(now, STALL_TIMEOUT)) {
+                    continue;
+                }
+                LOGGER.warn("job {} stalled, kill it||gpu index={}||frame {}/{}", progress.getName(), progress.getGpuIndex(),
+                        progress.getProcessedFrames(), progress.getTotalFrames());
+                Video2xMetrics.unregister(progress.getJobKey());
+                killConvertProcess(progress.getJobKey());
+            }
+        } catch (Exception e) {
+            LOGGER.error("check stalled video2x job exception", e);
+        }
+    }
+
+    /**
+     * 按输出路径查找 video2x 进程并杀掉，进程退出后 {@link #convertSingleVideo} 返回失败
+     */
+    private static void killConvertProcess(String outputPath) {
+        String command = String.format("ps -ef | grep %s | grep %s | grep -v grep", VIDEO2X_COMMAND, outputPath);
+        CommandExecutor.CommandResult result = CommandExecutor.executeCommand(command, SHORT_COMMAND_TIMEOUT);
+        if (!result.isSuccess() || StringUtils.isBlank(result.getStdOutput())) {
+            LOGGER.warn("no video2x process found||output={}", outputPath);
+            return;
+        }
+        for (String line : result.getStdOutput().split("\n")) {
+            String[] columns = line.trim().split("\\s+");
+            if (columns.length > 1) {
+                CommandExecutor.executeCommandWithoutRefreshBash(Lists.newArrayList("kill", "-9", columns[1]), SHORT_COMMAND_TIMEOUT);
+            }
         }
     }
 
@@ -148,7 +276,7 @@ public class VideoEnhance {
     }
 
     public static int[] convertDir(File inputDir, File outputDir, int scale, List<String> nameExtensionList) {
-        List<Integer> gpuIndexList = deviceList().stream().filter(var -> var.getValue().equals(GPU_TYPE)).map(Pair::getKey).collect(Collectors.toList());
+        List<Integer> gpuIndexList = gpuIndexList();
         LOGGER.info("total gpu index list={}", gpuIndexList);
         int[] result = new int[]{0, 0};
         if (CollectionUtils.isEmpty(gpuIndexList)) {
@@ -158,28 +286,110 @@ public class VideoEnhance {
         if (!outputDir.exists() || !outputDir.isDirectory()) {
             Assert.isTrue(outputDir.mkdirs(), String.format("failed to create output dir {}", outputDir.getAbsolutePath()));
         }
-        List<File> fileVideoList = (List<File>) FileUtils.listFiles(inputDir, nameExtensionList.toArray(new String[0]), true);
+        List<File> fileVideoList = Lists.newArrayList((Collection<File>) FileUtils.listFiles(inputDir, nameExtensionList.toArray(new String[0]), true));
+        // 最长任务优先，缩短整批完成时间
+        fileVideoList.sort(Comparator.comparingLong(File::length).reversed());
         LOGGER.info("scan dir {} total video size={}", inputDir.getAbsolutePath(), fileVideoList.size());
+        ConvertJournal journal = ConvertJournal.load(outputDir);
         AtomicInteger successAtomic = new AtomicInteger();
         AtomicInteger failAtomic = new AtomicInteger();
+        AtomicInteger skipAtomic = new AtomicInteger();
         ExecutorService executorService = Executors.newFixedThreadPool(gpuIndexList.size() * SINGLE_GPU_MAX_TASK_NUM);
         CompletableFutureUtil.asyncRunAllOf(fileVideoList, inputVideo -> {
-            String relativePath = inputVideo.getAbsolutePath().substring(inputDir.getAbsolutePath().length());
-            if (relativePath.startsWith("/") || relativePath.startsWith("\\")) {
-                relativePath = relativePath.substring(1);
-            }
+            String relativePath = relativePath(inputDir, inputVideo);
             File outputVideo = Paths.get(outputDir.getAbsolutePath(), relativePath).toFile();
-            boolean convertResult = convertSingleVideo(inputVideo, outputVideo, scale);
+            if (journal.isFinished(relativePath, inputVideo, outputVideo)) {
+                LOGGER.info("file {} already converted, skip", relativePath);
+                skipAtomic.incrementAndGet();
+                successAtomic.incrementAndGet();
+                return;
+            }
+            journal.register(relativePath, inputVideo);
+            if (journal.remainingAttempts(relativePath, MAX_CONVERT_ATTEMPTS) <= 0) {
+                // 上次运行已用完重试次数且输入未变化，修改或替换输入文件后才会重新转换
+                LOGGER.warn("file {} failed {} times before, skip", relativePath, MAX_CONVERT_ATTEMPTS);
+                failAtomic.incrementAndGet();
+                return;
+            }
+            boolean convertResult = false;
+            while (!convertResult && !Thread.currentThread().isInterrupted()
+                    && journal.remainingAttempts(relativePath, MAX_CONVERT_ATTEMPTS) > 0) {
+                int attempt = journal.getEntry(relativePath).getAttempts() + 1;
+                if (attempt > 1) {
+                    LOGGER.warn("retry convert file {}||attempt={}", relativePath, attempt);
+                }
+                convertResult = convertWithJournal(journal, relativePath, inputVideo, outputVideo, scale);
+            }
             if (convertResult) {
                 successAtomic.incrementAndGet();
             } else {
                 failAtomic.incrementAndGet();
             }
         }, executorService).join();
-        LOGGER.info("convert {} finished||success count={}||fail count={}", inputDir.getAbsolutePath(), successAtomic.get(), failAtomic.get());
+        LOGGER.info("convert {} finished||success count={}||skip count={}||fail count={}", inputDir.getAbsolutePath(),
+                successAtomic.get(), skipAtomic.get(), failAtomic.get());
         result[0] = successAtomic.get();
         result[1] = failAtomic.get();
         CompletableFutureUtil.shutdownGracefully(executorService, 10, TimeUnit.SECONDS);
         return result;
     }
+
+    /**
+     * 单次转换并记录到任务日志。先输出到临时文件，成功后原子替换目标文件，
+     * 中断时不会留下看似完整的半成品。
+     */
+    static boolean convertWithJournal(ConvertJournal journal, String relativePath, File inputVideo, File outputVideo, int scale) {
+        File partialVideo = partialFileOf(outputVideo);
+        File parentDir = outputVideo.getParentFile();
+        if (!parentDir.exists()) {
+            parentDir.mkdirs();
+        }
+        if (partialVideo.exists()) {
+            LOGGER.warn("delete stale partial output {}", partialVideo.getAbsolutePath());
+            partialVideo.delete();
+        }
+        // 先占用 gpu 再计入尝试次数，gpu 全忙时等待而不是消耗重试次数
+        Integer gpuIndex = awaitFreeGpu();
+        if (gpuIndex == null) {
+            return false;
+        }
+        try {
+            journal.markRunning(relativePath);
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            try {
+                boolean success = convertOnGpu(inputVideo, partialVideo, scale, gpuIndex) && partialVideo.exists();
+                if (success) {
+                    Files.move(partialVideo.toPath(), outputVideo.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    journal.markDone(relativePath, outputVideo, DigestUtil.md5Hex(outputVideo), stopwatch.elapsed(TimeUnit.MILLISECONDS));
+                    return true;
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("convert file {} exception", relativePath, e);
+            }
+            partialVideo.delete();
+            journal.markFailed(relativePath, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            return false;
+        } finally {
+            releaseGpu(gpuIndex);
+        }
+    }
+
+    static String relativePath(File inputDir, File inputVideo) {
+        String relativePath = inputVideo.getAbsolutePath().substring(inputDir.getAbsolutePath().length());
+        if (relativePath.startsWith("/") || relativePath.startsWith("\\")) {
+            relativePath = relativePath.substring(1);
+        }
+        return relativePath;
+    }
+
+    /**
+     * 临时文件保留原扩展名，video2x 依据扩展名选择封装格式
+     */
+    private static File partialFileOf(File outputVideo) {
+        String name = outputVideo.getName();
+        int dotIndex = name.lastIndexOf('.');
+        String partialName = dotIndex < 0 ? name + PARTIAL_FILE_TAG
+                : name.substring(0, dotIndex) + PARTIAL_FILE_TAG + name.substring(dotIndex);
+        return new File(outputVideo.getParentFile(), partialName);
+    }
 }
@@ -0,0 +1,322 @@
+package zbj.gr.easy.video2x;
+
+import cn.hutool.core.lang.Assert;
+import com.google.common.collect.Lists;
+import com.grw.xiaobai.util.CompletableFutureUtil;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 监听目录持续增强：新视频写入完成（大小和修改时间在稳定窗口内不再变化）后送入 {@link EnhanceScheduler}。
+ * 优先使用 {@link WatchService}，同时定期全量扫描兜底（网络文件系统等不支持监听，或事件溢出的情况）。
+ * 调度队列满时候选文件留在原地，等有空位再提交；同一路径上一次提交的任务还在排队或转换时同样留在原地，等它结束再提交。
+ */
+public class VideoWatchIngest implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(VideoWatchIngest.class);
+    private static final long STABLE_CHECK_INTERVAL_SECONDS = 1;
+
+    private final File inputDir;
+    private final File outputDir;
+    private final int scale;
+    private final List<String> nameExtensionList;
+    private final long stableMillis;
+    private final long pollIntervalSeconds;
+    private final EnhanceScheduler scheduler;
+    private final ConvertJournal journal;
+    /**
+     * 候选文件 -> [size, lastModified, 最近一次变化的时间]
+     */
+    private final Map<File, long[]> candidateMap = new ConcurrentHashMap<>();
+    /**
+     * 已提交文件 -> size:lastModified，同名文件内容变化（重新上传或修改）后会再次提交
+     */
+    private final Map<String, String> submittedMap = new ConcurrentHashMap<>();
+    /**
+     * 已提交且尚未结束的任务路径，任务结束回调中移除
+     */
+    private final Set<String> inFlightSet = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService scheduledExecutorService;
+    private WatchService watchService;
+    private Thread watchThread;
+    private volatile boolean running;
+
+    private VideoWatchIngest(Builder builder) {
+        this.inputDir = builder.inputDir;
+        this.outputDir = builder.outputDir != null ? builder.outputDir
+                : new File(builder.inputDir.getParent(), String.format("enhanced_%s", builder.inputDir.getName()));
+        this.scale = builder.scale;
+        this.nameExtensionList = builder.nameExtensionList;
+        this.stableMillis = builder.stableMillis;
+        this.pollIntervalSeconds = builder.pollIntervalSeconds;
+        int queueCapacity = builder.queueCapacity > 0 ? builder.queueCapacity : EnhanceScheduler.defaultCapacity();
+        this.scheduler = new EnhanceScheduler(queueCapacity);
+        if (!outputDir.exists() || !outputDir.isDirectory()) {
+            Assert.isTrue(outputDir.mkdirs(), String.format("failed to create output dir %s", outputDir.getAbsolutePath()));
+        }
+        this.journal = ConvertJournal.load(outputDir);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private File inputDir;
+        private File outputDir;
+        private int scale = 2;
+        private List<String> nameExtensionList = Lists.newArrayList("mp4", "mkv", "ts", "rmvb");
+        private int queueCapacity = 0;
+        private long stableMillis = TimeUnit.SECONDS.toMillis(30);
+        private long pollIntervalSeconds = 60;
+
+        public Builder inputDir(File inputDir) {
+            this.inputDir = inputDir;
+            return this;
+        }
+
+        public Builder outputDir(File outputDir) {
+            this.outputDir = outputDir;
+            return this;
+        }
+
+        public Builder scale(int scale) {
+            this.scale = scale;
+            return this;
+        }
+
+        public Builder nameExtensionList(List<String> nameExtensionList) {
+            this.nameExtensionList = nameExtensionList;
+            return this;
+        }
+
+        /**
+         * 调度队列容量（含执行中任务），默认 gpu 槽位数的两倍
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * 文件大小和修改时间保持不变多久后视为写入完成
+         */
+        public Builder stableMillis(long stableMillis) {
+            this.stableMillis = stableMillis;
+            return this;
+        }
+
+        public Builder pollIntervalSeconds(long pollIntervalSeconds) {
+            this.pollIntervalSeconds = pollIntervalSeconds;
+            return this;
+        }
+
+        public VideoWatchIngest build() {
+            Assert.isTrue(inputDir != null && inputDir.isDirectory(), "input dir not exists");
+            return new VideoWatchIngest(this);
+        }
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        scheduler.start();
+        scheduledExecutorService = Executors.newScheduledThreadPool(2);
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            registerRecursive(inputDir);
+            watchThread = new Thread(this::watchLoop, "video-watch-" + inputDir.getName());
+            watchThread.setDaemon(true);
+            watchThread.start();
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.warn("watch service unavailable for {}, fallback to polling only", inputDir.getAbsolutePath(), e);
+            watchService = null;
+        }
+        scheduledExecutorService.scheduleWithFixedDelay(this::scanSafely, 0, pollIntervalSeconds, TimeUnit.SECONDS);
+        scheduledExecutorService.scheduleWithFixedDelay(this::promoteStableSafely, STABLE_CHECK_INTERVAL_SECONDS,
+                STABLE_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        LOGGER.info("start watching {}||outputDir={}", inputDir.getAbsolutePath(), outputDir.getAbsolutePath());
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                LOGGER.warn("close watch service error", e);
+            }
+        }
+        CompletableFutureUtil.shutdownGracefully(scheduledExecutorService, 10, TimeUnit.SECONDS);
+        scheduler.shutdown();
+        LOGGER.info("stop watching {}||pending candidate count={}", inputDir.getAbsolutePath(), candidateMap.size());
+    }
+
+    public EnhanceScheduler getScheduler() {
+        return scheduler;
+    }
+
+    private void registerRecursive(File dir) throws IOException {
+        dir.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        File[] subFiles = dir.listFiles(File::isDirectory);
+        if (subFiles != null) {
+            for (File subDir : subFiles) {
+                registerRecursive(subDir);
+            }
+        }
+    }
+
+    private void watchLoop() {
+        while (running) {
+            WatchKey watchKey;
+            try {
+                watchKey = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = (Path) watchKey.watchable();
+            for (WatchEvent<?> event : watchKey.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    LOGGER.warn("watch event overflow, rescan {}", inputDir.getAbsolutePath());
+                    scheduledExecutorService.execute(this::scanSafely);
+                    continue;
+                }
+                File file = dir.resolve((Path) event.context()).toFile();
+                if (file.isDirectory()) {
+                    try {
+                        registerRecursive(file);
+                    } catch (IOException e) {
+                        LOGGER.warn("failed to watch new dir {}", file.getAbsolutePath(), e);
+                    }
+                    // 目录可能是整体移动进来的，里面的文件不会再产生事件
+                    scheduledExecutorService.execute(this::scanSafely);
+                } else {
+                    touchCandidate(file);
+                }
+            }
+            watchKey.reset();
+        }
+    }
+
+    private void scanSafely() {
+        try {
+            Collection<File> fileList = FileUtils.listFiles(inputDir, nameExtensionList.toArray(new String[0]), true);
+            for (File file : fileList) {
+                touchCandidate(file);
+            }
+        } catch (Exception e) {
+            LOGGER.error("scan dir {} exception", inputDir.getAbsolutePath(), e);
+        }
+    }
+
+    private void touchCandidate(File file) {
+        if (!file.isFile() || !isVideo(file)) {
+            return;
+        }
+        String relativePath = VideoEnhance.relativePath(inputDir, file);
+        long size = file.length();
+        long lastModified = file.lastModified();
+        if (fileIdentity(size, lastModified).equals(submittedMap.get(relativePath))) {
+            return;
+        }
+        candidateMap.compute(file, (k, v) -> {
+            if (v == null || v[0] != size || v[1] != lastModified) {
+                return new long[]{size, lastModified, System.currentTimeMillis()};
+            }
+            return v;
+        });
+    }
+
+    private void promoteStableSafely() {
+        try {
+            promoteStable();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOGGER.error("promote stable video exception", e);
+        }
+    }
+
+    private void promoteStable() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<File, long[]>> iterator = candidateMap.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<File, long[]> entry = iterator.next();
+            File file = entry.getKey();
+            long[] state = entry.getValue();
+            if (!file.exists()) {
+                iterator.remove();
+                continue;
+            }
+            if (file.length() != state[0] || file.lastModified() != state[1]) {
+                touchCandidate(file);
+                continue;
+            }
+            if (state[0] == 0 || now - state[2] < stableMillis) {
+                continue;
+            }
+            String relativePath = VideoEnhance.relativePath(inputDir, file);
+            if (inFlightSet.contains(relativePath)) {
+                // 旧内容的任务还在排队或转换，两个任务会写同一个输出文件，等它结束后再提交
+                continue;
+            }
+            File outputFile = Paths.get(outputDir.getAbsolutePath(), relativePath).toFile();
+            if (journal.isFinished(relativePath, file, outputFile)) {
+                submittedMap.put(relativePath, fileIdentity(state[0], state[1]));
+                iterator.remove();
+                continue;
+            }
+            EnhanceJob job = new EnhanceJob(file, outputFile, relativePath, journal, scale,
+                    success -> inFlightSet.remove(relativePath));
+            inFlightSet.add(relativePath);
+            if (!scheduler.offer(job, 0, TimeUnit.MILLISECONDS)) {
+                inFlightSet.remove(relativePath);
+                // 队列满，剩余候选等下一轮
+                LOGGER.debug("enhance queue full, {} candidates waiting", candidateMap.size());
+                return;
+            }
+            LOGGER.info("file {} ready, submit to enhance queue||queued={}", relativePath, scheduler.queuedSize());
+            submittedMap.put(relativePath, fileIdentity(state[0], state[1]));
+            iterator.remove();
+        }
+    }
+
+    /**
+     * 与任务日志判断输入是否变化的依据一致
+     */
+    private static String fileIdentity(long size, long lastModified) {
+        return size + ":" + lastModified;
+    }
+
+    private boolean isVideo(File file) {
+        String name = file.getName().toLowerCase();
+        return nameExtensionList.stream().anyMatch(ext -> name.endsWith("." + ext.toLowerCase()));
+    }
+}
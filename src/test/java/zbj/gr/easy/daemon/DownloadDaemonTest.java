@@ -0,0 +1,109 @@
+package zbj.gr.easy.daemon;
+
+import com.alibaba.fastjson.JSON;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import zbj.gr.easy.downloader.bench.FaultInjectingRangeServer;
+import zbj.gr.easy.downloader.bench.FaultProfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DownloadDaemonTest {
+    private static final long MB = 1024 * 1024;
+
+    @TempDir
+    File workDir;
+
+    /**
+     * 暂停后立即恢复：旧的下载退出前任务不会被再次调度，最终只有一次执行写 DONE，文件完整。保存目录事先不存在
+     */
+    @Test
+    void resumeWhilePausing() throws Exception {
+        byte[] content = new byte[(int) (8 * MB)];
+        new Random(7).nextBytes(content);
+        String fileName = "daemon_resume.bin";
+        FaultProfile profile = new FaultProfile("slow").bytesPerSecondPerConnection(2 * MB);
+        int port = freePort();
+        File saveDir = new File(workDir, "saved");
+        DownloadDaemon daemon = new DownloadDaemon(new File(workDir, "jobs.json"), port, 2, 8, null, 0);
+        try (FaultInjectingRangeServer server = new FaultInjectingRangeServer(content, profile)) {
+            server.start();
+            daemon.start();
+            String baseUrl = "http://127.0.0.1:" + port + "/jobs";
+            DaemonJob submit = new DaemonJob();
+            submit.setType(DaemonJob.JobType.DOWNLOAD);
+            submit.setUrl(server.getUrl(fileName));
+            submit.setSaveDir(saveDir.getAbsolutePath());
+            submit.setThreadCount(2);
+            DaemonJob job = JSON.parseObject(request("POST", baseUrl, JSON.toJSONString(submit)), DaemonJob.class);
+            String jobUrl = baseUrl + "/" + job.getId();
+            waitForState(jobUrl, DaemonJob.JobState.RUNNING, 10);
+            TimeUnit.MILLISECONDS.sleep(500);
+
+            DaemonJob paused = JSON.parseObject(request("POST", jobUrl + "/pause", ""), DaemonJob.class);
+            assertTrue(paused.getState() == DaemonJob.JobState.PAUSING || paused.getState() == DaemonJob.JobState.PAUSED,
+                    "unexpected state after pause " + paused.getState());
+            request("POST", jobUrl + "/resume", "");
+
+            DaemonJob done = waitForState(jobUrl, DaemonJob.JobState.DONE, 60);
+            assertEquals(DaemonJob.JobState.DONE, done.getState());
+            assertTrue(Arrays.equals(content, Files.readAllBytes(new File(saveDir, fileName).toPath())),
+                    "downloaded content differs from source");
+        } finally {
+            daemon.stop();
+        }
+    }
+
+    private static DaemonJob waitForState(String jobUrl, DaemonJob.JobState state, int timeoutSeconds) throws Exception {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        DaemonJob job;
+        do {
+            job = JSON.parseObject(request("GET", jobUrl, null), DaemonJob.class);
+            if (job.getState() == state) {
+                return job;
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+        } while (System.currentTimeMillis() < deadline);
+        return job;
+    }
+
+    private static String request(String method, String url, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int code = connection.getResponseCode();
+        try (InputStream inputStream = code < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            String response = IOUtils.toString(inputStream, StandardCharsets.UTF_8.name());
+            assertTrue(code < 400, method + " " + url + " returned " + code + " " + response);
+            return response;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package zbj.gr.easy.downloader;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AdaptiveRangeSizerTest {
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    void statsCountSentBytesNotSuggestedSize() {
+        AdaptiveRangeSizer sizer = new AdaptiveRangeSizer(AdaptiveRangeSizer.DEFAULT_MIN_BLOCK_SIZE, AdaptiveRangeSizer.DEFAULT_MAX_BLOCK_SIZE);
+        assertEquals(4 * MB, sizer.nextBlockSize());
+        sizer.recordRequest(4 * MB);
+        // 分段末尾只剩 1MB，按实际发出的大小统计
+        sizer.recordRequest(MB);
+        assertEquals(2, sizer.getRequestCount());
+        assertEquals(5 * MB, sizer.getRequestedBytes());
+        assertEquals(MB, sizer.getMinChosenSize());
+        assertEquals(4 * MB, sizer.getMaxChosenSize());
+    }
+
+    @Test
+    void growAtMostTwiceAndHalveOnFailure() {
+        AdaptiveRangeSizer sizer = new AdaptiveRangeSizer(AdaptiveRangeSizer.DEFAULT_MIN_BLOCK_SIZE, AdaptiveRangeSizer.DEFAULT_MAX_BLOCK_SIZE);
+        // 100MB/s、RTT 50ms 时目标约 80MB，单步最多翻倍
+        sizer.onSuccess(4 * MB, 50, 40);
+        assertEquals(8 * MB, sizer.nextBlockSize());
+        sizer.onFailure();
+        assertEquals(4 * MB, sizer.nextBlockSize());
+    }
+}
@@ -0,0 +1,99 @@
+package zbj.gr.easy.downloader.bench;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zbj.gr.easy.downloader.FileSizeFormatter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 各故障配置的下载耗时基线，默认不运行。结果写成 tsv，传入上一次的结果作为基线时，耗时明显变长视为性能回退：
+ * <pre>
+ * mvn test -Dtest=DownloadRegressionBenchmarkTest -Ddownload.regression.result=target/download_regression.tsv \
+ *     [-Ddownload.regression.baseline=上次结果.tsv] [-Ddownload.regression.sizeMb=32] [-Ddownload.regression.threadCount=4] \
+ *     [-Ddownload.regression.maxSlowdownRatio=1.5]
+ * </pre>
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "download.regression.result", matches = ".+")
+class DownloadRegressionBenchmarkTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DownloadRegressionBenchmarkTest.class);
+    /**
+     * 耗时差距小于该值时不算回退，避免短用例受抖动影响
+     */
+    private static final long REGRESSION_NOISE_MILLIS = 1000;
+
+    @TempDir
+    File workDir;
+
+    @Test
+    void compareWithBaseline() throws IOException {
+        int sizeMb = Integer.getInteger("download.regression.sizeMb", 32);
+        int threadCount = Integer.getInteger("download.regression.threadCount", 4);
+        double maxSlowdownRatio = Double.parseDouble(System.getProperty("download.regression.maxSlowdownRatio", "1.5"));
+        File resultFile = new File(System.getProperty("download.regression.result"));
+        String baselinePath = System.getProperty("download.regression.baseline");
+        Map<String, Long> baselineMap = baselinePath != null && new File(baselinePath).exists()
+                ? readBaseline(new File(baselinePath)) : Maps.newHashMap();
+
+        byte[] content = DownloadRegressionRunner.randomContent(sizeMb);
+        List<DownloadRegressionRunner.ProfileResult> resultList = Lists.newArrayList();
+        List<String> problemList = Lists.newArrayList();
+        for (FaultProfile profile : DownloadRegressionRunner.defaultProfiles()) {
+            DownloadRegressionRunner.ProfileResult result = DownloadRegressionRunner.runProfile(profile, content, threadCount, workDir);
+            resultList.add(result);
+            Long baselineMillis = baselineMap.get(profile.getName());
+            boolean regressed = baselineMillis != null && result.isPassed()
+                    && result.getElapsedMillis() > baselineMillis * maxSlowdownRatio
+                    && result.getElapsedMillis() - baselineMillis > REGRESSION_NOISE_MILLIS;
+            String status = result.isPassed() ? (regressed ? "REGRESSED" : "PASSED") : "FAILED";
+            LOGGER.info("profile {} {}||cost={}ms||speed={}||range requests={}||injected faults={}||baseline={}ms",
+                    profile.getName(), status, result.getElapsedMillis(), FileSizeFormatter.formatSpeed(result.getBytesPerSecond()),
+                    result.getRangeRequestCount(), result.getInjectedFaultCount(), baselineMillis);
+            if (!result.isPassed() || regressed) {
+                problemList.add(profile.getName() + " " + status);
+            }
+        }
+        writeResult(resultFile, resultList);
+        LOGGER.info("download regression result file={}", resultFile.getAbsolutePath());
+        assertTrue(problemList.isEmpty(), "download regression problems: " + problemList);
+    }
+
+    private static void writeResult(File resultFile, List<DownloadRegressionRunner.ProfileResult> resultList) throws IOException {
+        StringBuilder builder = new StringBuilder("profile\tpassed\telapsed_ms\tbytes_per_second\trange_requests\tinjected_faults\n");
+        for (DownloadRegressionRunner.ProfileResult result : resultList) {
+            builder.append(result.getProfile().getName()).append('\t')
+                    .append(result.isPassed()).append('\t')
+                    .append(result.getElapsedMillis()).append('\t')
+                    .append(String.format("%.0f", result.getBytesPerSecond())).append('\t')
+                    .append(result.getRangeRequestCount()).append('\t')
+                    .append(result.getInjectedFaultCount()).append('\n');
+        }
+        FileUtils.writeStringToFile(resultFile, builder.toString(), StandardCharsets.UTF_8.name());
+    }
+
+    private static Map<String, Long> readBaseline(File baselineFile) throws IOException {
+        Map<String, Long> name2MillisMap = Maps.newHashMap();
+        String[] lines = FileUtils.readFileToString(baselineFile, StandardCharsets.UTF_8.name()).split("\\r?\\n");
+        for (int i = 1; i < lines.length; i++) {
+            String[] columns = lines[i].split("\t");
+            if (columns.length >= 3 && Boolean.parseBoolean(columns[1])) {
+                name2MillisMap.put(columns[0], Long.parseLong(columns[2]));
+            }
+        }
+        return name2MillisMap;
+    }
+}
@@ -0,0 +1,127 @@
+package zbj.gr.easy.downloader.bench;
+
+import cn.hutool.core.io.FileUtil;
+import com.google.common.collect.Lists;
+import zbj.gr.easy.downloader.FileDownloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 在 {@link FaultInjectingRangeServer} 上按故障配置跑一次完整下载，供回归测试和耗时基线测试共用
+ */
+class DownloadRegressionRunner {
+    static final long MB = 1024 * 1024;
+    private static final long RANDOM_SEED = 20240601L;
+
+    static class ProfileResult {
+        private final FaultProfile profile;
+        private final boolean downloadSuccess;
+        private final boolean contentMatched;
+        private final long elapsedMillis;
+        private final double bytesPerSecond;
+        private final int rangeRequestCount;
+        private final int injectedFaultCount;
+
+        ProfileResult(FaultProfile profile, boolean downloadSuccess, boolean contentMatched, long elapsedMillis,
+                      double bytesPerSecond, int rangeRequestCount, int injectedFaultCount) {
+            this.profile = profile;
+            this.downloadSuccess = downloadSuccess;
+            this.contentMatched = contentMatched;
+            this.elapsedMillis = elapsedMillis;
+            this.bytesPerSecond = bytesPerSecond;
+            this.rangeRequestCount = rangeRequestCount;
+            this.injectedFaultCount = injectedFaultCount;
+        }
+
+        FaultProfile getProfile() {
+            return profile;
+        }
+
+        boolean isDownloadSuccess() {
+            return downloadSuccess;
+        }
+
+        boolean isContentMatched() {
+            return contentMatched;
+        }
+
+        long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        double getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        int getRangeRequestCount() {
+            return rangeRequestCount;
+        }
+
+        int getInjectedFaultCount() {
+            return injectedFaultCount;
+        }
+
+        /**
+         * 期望成功的配置要求结果逐字节一致，期望失败的配置要求 download() 返回 false；
+         * 配置的故障一次都没触发时用例没有意义，同样不算通过
+         */
+        boolean isPassed() {
+            boolean outcomeExpected = profile.isExpectSuccess() ? downloadSuccess && contentMatched : !downloadSuccess;
+            return outcomeExpected && (!profile.injectsFaults() || injectedFaultCount > 0);
+        }
+    }
+
+    static List<FaultProfile> defaultProfiles() {
+        return Lists.newArrayList(
+                new FaultProfile("baseline"),
+                new FaultProfile("latency-100ms").latencyMillis(100),
+                new FaultProfile("bandwidth-4MBps").bytesPerSecondPerConnection(4 * MB),
+                new FaultProfile("reset-every-4").resetEvery(4),
+                new FaultProfile("burst-503").errorBurst(10, 3, 503),
+                new FaultProfile("burst-429").errorBurst(8, 2, 429),
+                new FaultProfile("wrong-content-range").wrongContentRangeEvery(3),
+                new FaultProfile("etag-change").etagChangeAfter(2)
+        );
+    }
+
+    static FaultProfile profile(String name) {
+        return defaultProfiles().stream().filter(profile -> profile.getName().equals(name)).findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("unknown fault profile " + name));
+    }
+
+    static byte[] randomContent(int sizeMb) {
+        byte[] content = new byte[(int) (sizeMb * MB)];
+        new Random(RANDOM_SEED).nextBytes(content);
+        return content;
+    }
+
+    static ProfileResult runProfile(FaultProfile profile, byte[] content, int threadCount, File workDir) throws IOException {
+        String fileName = "regression_" + profile.getName() + ".bin";
+        File saveFile = new File(workDir, fileName);
+        try (FaultInjectingRangeServer server = new FaultInjectingRangeServer(content, profile)) {
+            server.start();
+            FileDownloader downloader = FileDownloader.builder()
+                    .url(server.getUrl(fileName))
+                    .savePath(saveFile.getAbsolutePath())
+                    .threadCount(threadCount)
+                    .build();
+            FileUtil.del(downloader.getProgressDir());
+            try {
+                long startTime = System.currentTimeMillis();
+                boolean success = downloader.download();
+                long elapsedMillis = Math.max(1, System.currentTimeMillis() - startTime);
+                boolean contentMatched = saveFile.exists() && Arrays.equals(content, Files.readAllBytes(saveFile.toPath()));
+                return new ProfileResult(profile, success, contentMatched, elapsedMillis, content.length * 1000.0 / elapsedMillis,
+                        server.getRangeRequestCount(), server.getInjectedFaultCount());
+            } finally {
+                saveFile.delete();
+                FileUtil.del(downloader.getProgressDir());
+            }
+        }
+    }
+}
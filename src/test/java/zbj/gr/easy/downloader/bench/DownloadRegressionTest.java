@@ -0,0 +1,84 @@
+package zbj.gr.easy.downloader.bench;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 每种故障配置下 {@link zbj.gr.easy.downloader.FileDownloader} 的端到端行为：结果逐字节一致，
+ * 或在文件变化时明确失败；同时要求配置的故障确实触发过
+ */
+class DownloadRegressionTest {
+    private static final int FILE_SIZE_MB = 8;
+    private static final int THREAD_COUNT = 4;
+    private static byte[] content;
+
+    @TempDir
+    File workDir;
+
+    @BeforeAll
+    static void initContent() {
+        content = DownloadRegressionRunner.randomContent(FILE_SIZE_MB);
+    }
+
+    @Test
+    void baseline() throws IOException {
+        assertDownloaded("baseline");
+    }
+
+    @Test
+    void latency() throws IOException {
+        assertDownloaded("latency-100ms");
+    }
+
+    @Test
+    void bandwidthCap() throws IOException {
+        assertDownloaded("bandwidth-4MBps");
+    }
+
+    @Test
+    void connectionReset() throws IOException {
+        assertDownloaded("reset-every-4");
+    }
+
+    @Test
+    void serviceUnavailableBurst() throws IOException {
+        assertDownloaded("burst-503");
+    }
+
+    @Test
+    void tooManyRequestsBurst() throws IOException {
+        assertDownloaded("burst-429");
+    }
+
+    @Test
+    void wrongContentRange() throws IOException {
+        assertDownloaded("wrong-content-range");
+    }
+
+    @Test
+    void entityTagChange() throws IOException {
+        DownloadRegressionRunner.ProfileResult result = run("etag-change");
+        assertFalse(result.isDownloadSuccess(), "download should fail when remote file changes");
+        assertTrue(result.getInjectedFaultCount() > 0, "remote file never changed");
+    }
+
+    private void assertDownloaded(String profileName) throws IOException {
+        DownloadRegressionRunner.ProfileResult result = run(profileName);
+        assertTrue(result.isDownloadSuccess(), "download failed");
+        assertTrue(result.isContentMatched(), "downloaded content differs from source");
+        if (result.getProfile().injectsFaults()) {
+            assertTrue(result.getInjectedFaultCount() > 0, "configured fault never fired");
+        }
+    }
+
+    private DownloadRegressionRunner.ProfileResult run(String profileName) throws IOException {
+        return DownloadRegressionRunner.runProfile(DownloadRegressionRunner.profile(profileName), content, THREAD_COUNT, workDir);
+    }
+}
@@ -0,0 +1,121 @@
+package zbj.gr.easy.downloader.bench;
+
+import cn.hutool.core.io.FileUtil;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import zbj.gr.easy.downloader.FileDownloader;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 停止后用新的 {@link FileDownloader} 续传：只补下载剩余部分且结果逐字节一致；
+ * 远端文件（ETag）或线程数变化时丢弃旧进度重新下载
+ */
+class DownloadResumeTest {
+    private static final int FILE_SIZE_MB = 8;
+    private static final int THREAD_COUNT = 4;
+    private static byte[] content;
+
+    @TempDir
+    File workDir;
+
+    @BeforeAll
+    static void initContent() {
+        content = DownloadRegressionRunner.randomContent(FILE_SIZE_MB);
+    }
+
+    @Test
+    void resumeAfterStop() throws Exception {
+        File saveFile = new File(workDir, "resume.bin");
+        try (FaultInjectingRangeServer server = startThrottledServer()) {
+            FileDownloader resumed = stopPartwayThenRebuild(server, saveFile, THREAD_COUNT);
+            long servedBeforeResume = server.getServedRangeBytes();
+            try {
+                assertTrue(resumed.download(), "resume failed");
+                assertTrue(Arrays.equals(content, Files.readAllBytes(saveFile.toPath())), "resumed content differs from source");
+                assertTrue(server.getServedRangeBytes() - servedBeforeResume < content.length, "resume downloaded the whole file again");
+                assertFalse(resumed.getProgressDir().exists(), "progress dir kept after success");
+            } finally {
+                FileUtil.del(resumed.getProgressDir());
+            }
+        }
+    }
+
+    @Test
+    void discardProgressWhenEntityTagChanged() throws Exception {
+        File saveFile = new File(workDir, "etag_changed.bin");
+        try (FaultInjectingRangeServer server = startThrottledServer()) {
+            FileDownloader resumed = stopPartwayThenRebuild(server, saveFile, THREAD_COUNT);
+            server.changeContent();
+            long servedBeforeResume = server.getServedRangeBytes();
+            try {
+                assertTrue(resumed.download(), "download after remote change failed");
+                assertTrue(Arrays.equals(server.getChangedContent(), Files.readAllBytes(saveFile.toPath())),
+                        "stale blocks from the old file were kept");
+                assertTrue(server.getServedRangeBytes() - servedBeforeResume >= content.length, "old progress was not discarded");
+            } finally {
+                FileUtil.del(resumed.getProgressDir());
+            }
+        }
+    }
+
+    @Test
+    void discardProgressWhenThreadCountChanged() throws Exception {
+        File saveFile = new File(workDir, "thread_count_changed.bin");
+        try (FaultInjectingRangeServer server = startThrottledServer()) {
+            FileDownloader resumed = stopPartwayThenRebuild(server, saveFile, THREAD_COUNT / 2);
+            long servedBeforeResume = server.getServedRangeBytes();
+            try {
+                assertTrue(resumed.download(), "download with new thread count failed");
+                assertTrue(Arrays.equals(content, Files.readAllBytes(saveFile.toPath())), "blocks of the old split were reused");
+                assertTrue(server.getServedRangeBytes() - servedBeforeResume >= content.length, "old progress was not discarded");
+            } finally {
+                FileUtil.del(resumed.getProgressDir());
+            }
+        }
+    }
+
+    private static FaultInjectingRangeServer startThrottledServer() throws Exception {
+        // 限速保证停止时下载还没完成
+        FaultInjectingRangeServer server = new FaultInjectingRangeServer(content,
+                new FaultProfile("throttled").bytesPerSecondPerConnection(DownloadRegressionRunner.MB));
+        server.start();
+        return server;
+    }
+
+    /**
+     * 下载约四分之一后停止，返回使用 resumeThreadCount 新建的实例
+     */
+    private static FileDownloader stopPartwayThenRebuild(FaultInjectingRangeServer server, File saveFile, int resumeThreadCount)
+            throws Exception {
+        String url = server.getUrl(saveFile.getName());
+        FileDownloader first = newDownloader(url, saveFile, THREAD_COUNT);
+        FileUtil.del(first.getProgressDir());
+        CompletableFuture<Boolean> future = CompletableFuture.supplyAsync(first::download);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (first.getDownloadedBytes() < content.length / 4 && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+        first.stop();
+        assertFalse(future.get(30, TimeUnit.SECONDS), "stopped download reported success");
+        assertTrue(first.getDownloadedBytes() < content.length, "download finished before stop");
+        assertTrue(first.getProgressDir().exists(), "progress dir removed after stop");
+        return newDownloader(url, saveFile, resumeThreadCount);
+    }
+
+    private static FileDownloader newDownloader(String url, File saveFile, int threadCount) {
+        return FileDownloader.builder()
+                .url(url)
+                .savePath(saveFile.getAbsolutePath())
+                .threadCount(threadCount)
+                .build();
+    }
+}
@@ -0,0 +1,256 @@
+package zbj.gr.easy.downloader.bench;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 本地 Range 下载服务，按 {@link FaultProfile} 注入延迟、单连接限速、传输中途 RST、429/5xx、
+ * 错误的 Content-Range 以及文件内容和 ETag 变化，用于离线验证下载器的重试和续传逻辑。
+ * 也可以调用 {@link #changeContent()} 在两次下载之间直接替换文件。
+ * 每个响应都带 Connection: close，一个连接只处理一个请求。
+ */
+public class FaultInjectingRangeServer implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FaultInjectingRangeServer.class);
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private static final int WRITE_CHUNK_SIZE = 16 * 1024;
+    private static final String ETAG_V1 = "\"v1\"";
+    private static final String ETAG_V2 = "\"v2\"";
+
+    private final byte[] content;
+    private final byte[] changedContent;
+    private final FaultProfile profile;
+    private final AtomicInteger rangeRequestCount = new AtomicInteger();
+    private final AtomicInteger injectedFaultCount = new AtomicInteger();
+    private final AtomicLong servedRangeBytes = new AtomicLong();
+    private volatile boolean contentChanged;
+    private ServerSocket serverSocket;
+    private ExecutorService handlerExecutor;
+    private volatile boolean running;
+
+    public FaultInjectingRangeServer(byte[] content, FaultProfile profile) {
+        this.content = content;
+        this.profile = profile;
+        this.changedContent = new byte[content.length];
+        for (int i = 0; i < content.length; i++) {
+            changedContent[i] = (byte) (content[i] ^ 0x5A);
+        }
+    }
+
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        handlerExecutor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "range-server-handler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        Thread acceptThread = new Thread(this::acceptLoop, "range-server-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public String getUrl(String fileName) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/" + fileName;
+    }
+
+    public int getRangeRequestCount() {
+        return rangeRequestCount.get();
+    }
+
+    public int getInjectedFaultCount() {
+        return injectedFaultCount.get();
+    }
+
+    /**
+     * 206 响应实际写出的字节数，用于判断续传是否只补下载了剩余部分
+     */
+    public long getServedRangeBytes() {
+        return servedRangeBytes.get();
+    }
+
+    /**
+     * 之后的所有请求都返回变化后的内容和新的 ETag
+     */
+    public void changeContent() {
+        contentChanged = true;
+    }
+
+    public byte[] getChangedContent() {
+        return changedContent;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        handlerExecutor.shutdownNow();
+        try {
+            handlerExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                handlerExecutor.execute(() -> handle(socket));
+            } catch (IOException e) {
+                if (running) {
+                    LOGGER.warn("accept connection error", e);
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            String requestLine = reader.readLine();
+            if (requestLine == null) {
+                return;
+            }
+            Map<String, String> headerMap = new HashMap<>();
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                int index = line.indexOf(':');
+                if (index > 0) {
+                    headerMap.put(line.substring(0, index).trim().toLowerCase(), line.substring(index + 1).trim());
+                }
+            }
+            boolean head = requestLine.startsWith("HEAD ");
+            OutputStream outputStream = socket.getOutputStream();
+            String range = headerMap.get("range");
+            if (range == null) {
+                // 获取文件大小的请求不注入故障
+                writeResponse(socket, outputStream, 200, "OK", currentEtag(0), null, currentContent(0), 0, content.length, head, false);
+                return;
+            }
+            int requestIndex = rangeRequestCount.incrementAndGet();
+            if (profile.getLatencyMillis() > 0) {
+                Thread.sleep(profile.getLatencyMillis());
+            }
+            if (profile.getErrorEvery() > 0 && (requestIndex - 1) % profile.getErrorEvery() < profile.getErrorBurst()) {
+                injectedFaultCount.incrementAndGet();
+                writeResponse(socket, outputStream, profile.getErrorStatus(), "Injected Error", null, null, new byte[0], 0, 0, head, false);
+                return;
+            }
+            byte[] body = currentContent(requestIndex);
+            String etag = currentEtag(requestIndex);
+            if (changed(requestIndex)) {
+                injectedFaultCount.incrementAndGet();
+            }
+            String ifRange = headerMap.get("if-range");
+            if (ifRange != null && !ifRange.equals(etag)) {
+                writeResponse(socket, outputStream, 200, "OK", etag, null, body, 0, body.length, head, false);
+                return;
+            }
+            Matcher matcher = RANGE_PATTERN.matcher(range);
+            if (!matcher.matches() || Long.parseLong(matcher.group(1)) >= body.length) {
+                writeResponse(socket, outputStream, 416, "Range Not Satisfiable", etag, "bytes */" + body.length, new byte[0], 0, 0, head, false);
+                return;
+            }
+            int start = Integer.parseInt(matcher.group(1));
+            int end = matcher.group(2).isEmpty() ? body.length - 1 : (int) Math.min(Long.parseLong(matcher.group(2)), body.length - 1);
+            if (profile.getWrongContentRangeEvery() > 0 && requestIndex % profile.getWrongContentRangeEvery() == 0 && end > start) {
+                // 声明并返回从 start+1 开始的数据，客户端若不校验就会错位写入
+                injectedFaultCount.incrementAndGet();
+                start++;
+            }
+            boolean reset = profile.getResetEvery() > 0 && requestIndex % profile.getResetEvery() == 0;
+            if (reset) {
+                injectedFaultCount.incrementAndGet();
+            }
+            writeResponse(socket, outputStream, 206, "Partial Content", etag, "bytes " + start + "-" + end + "/" + body.length,
+                    body, start, end - start + 1, head, reset);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // 客户端提前断开（如只读取响应头）属于正常情况
+            LOGGER.debug("handle connection error", e);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOGGER.debug("close socket error", e);
+            }
+        }
+    }
+
+    private void writeResponse(Socket socket, OutputStream outputStream, int status, String reason, String etag, String contentRange,
+                               byte[] body, int offset, int length, boolean head, boolean resetHalfway)
+            throws IOException, InterruptedException {
+        StringBuilder header = new StringBuilder();
+        header.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+        header.append("Content-Length: ").append(length).append("\r\n");
+        header.append("Accept-Ranges: bytes\r\n");
+        if (etag != null) {
+            header.append("ETag: ").append(etag).append("\r\n");
+        }
+        if (contentRange != null) {
+            header.append("Content-Range: ").append(contentRange).append("\r\n");
+        }
+        header.append("Connection: close\r\n\r\n");
+        outputStream.write(header.toString().getBytes(StandardCharsets.ISO_8859_1));
+        outputStream.flush();
+        if (head) {
+            return;
+        }
+        int limit = resetHalfway ? length / 2 : length;
+        long bytesPerSecond = profile.getBytesPerSecondPerConnection();
+        long startTime = System.nanoTime();
+        int sent = 0;
+        while (sent < limit) {
+            int chunk = Math.min(WRITE_CHUNK_SIZE, limit - sent);
+            outputStream.write(body, offset + sent, chunk);
+            sent += chunk;
+            if (status == 206) {
+                servedRangeBytes.addAndGet(chunk);
+            }
+            if (bytesPerSecond > 0) {
+                long expectedNanos = sent * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+                long sleepNanos = expectedNanos - (System.nanoTime() - startTime);
+                if (sleepNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                }
+            }
+        }
+        outputStream.flush();
+        if (resetHalfway) {
+            // SO_LINGER=0 关闭时发送 RST 而不是 FIN
+            socket.setSoLinger(true, 0);
+        }
+    }
+
+    private boolean changed(int requestIndex) {
+        return contentChanged || profile.getEtagChangeAfter() > 0 && requestIndex > profile.getEtagChangeAfter();
+    }
+
+    private byte[] currentContent(int requestIndex) {
+        return changed(requestIndex) ? changedContent : content;
+    }
+
+    private String currentEtag(int requestIndex) {
+        return changed(requestIndex) ? ETAG_V2 : ETAG_V1;
+    }
+}
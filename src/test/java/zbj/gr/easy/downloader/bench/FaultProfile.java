@@ -0,0 +1,119 @@
+package zbj.gr.easy.downloader.bench;
+
+/**
+ * {@link FaultInjectingRangeServer} 的故障配置。计数均针对 Range 请求，获取文件大小的请求不注入故障。
+ */
+public class FaultProfile {
+    private final String name;
+    private long latencyMillis;
+    private long bytesPerSecondPerConnection;
+    private int resetEvery;
+    private int errorEvery;
+    private int errorBurst;
+    private int errorStatus = 503;
+    private int wrongContentRangeEvery;
+    private int etagChangeAfter;
+    private boolean expectSuccess = true;
+
+    public FaultProfile(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 每个请求返回响应头前的延迟
+     */
+    public FaultProfile latencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    /**
+     * 单连接限速，0 表示不限
+     */
+    public FaultProfile bytesPerSecondPerConnection(long bytesPerSecondPerConnection) {
+        this.bytesPerSecondPerConnection = bytesPerSecondPerConnection;
+        return this;
+    }
+
+    /**
+     * 每 n 个请求中有一个在响应体发送一半时 RST 断开
+     */
+    public FaultProfile resetEvery(int resetEvery) {
+        this.resetEvery = resetEvery;
+        return this;
+    }
+
+    /**
+     * 每 every 个请求中连续 burst 个返回 status（如 429、503）
+     */
+    public FaultProfile errorBurst(int every, int burst, int status) {
+        this.errorEvery = every;
+        this.errorBurst = burst;
+        this.errorStatus = status;
+        return this;
+    }
+
+    /**
+     * 每 n 个请求中有一个返回起点错位的 Content-Range
+     */
+    public FaultProfile wrongContentRangeEvery(int wrongContentRangeEvery) {
+        this.wrongContentRangeEvery = wrongContentRangeEvery;
+        return this;
+    }
+
+    /**
+     * 第 n 个请求之后文件内容和 ETag 变化，下载应当失败而不是拼出混合文件
+     */
+    public FaultProfile etagChangeAfter(int etagChangeAfter) {
+        this.etagChangeAfter = etagChangeAfter;
+        this.expectSuccess = false;
+        return this;
+    }
+
+    /**
+     * 是否配置了会被计入 injectedFaultCount 的故障，延迟和限速不算
+     */
+    public boolean injectsFaults() {
+        return resetEvery > 0 || errorEvery > 0 || wrongContentRangeEvery > 0 || etagChangeAfter > 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    public long getBytesPerSecondPerConnection() {
+        return bytesPerSecondPerConnection;
+    }
+
+    public int getResetEvery() {
+        return resetEvery;
+    }
+
+    public int getErrorEvery() {
+        return errorEvery;
+    }
+
+    public int getErrorBurst() {
+        return errorBurst;
+    }
+
+    public int getErrorStatus() {
+        return errorStatus;
+    }
+
+    public int getWrongContentRangeEvery() {
+        return wrongContentRangeEvery;
+    }
+
+    public int getEtagChangeAfter() {
+        return etagChangeAfter;
+    }
+
+    public boolean isExpectSuccess() {
+        return expectSuccess;
+    }
+}
@@ -0,0 +1,105 @@
+package zbj.gr.easy.video2x;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConvertJournalTest {
+    private static final String RELATIVE_PATH = "a.mp4";
+    private static final int MAX_ATTEMPTS = 3;
+
+    @TempDir
+    File workDir;
+
+    @Test
+    void registerResetsEntryWhenInputChanges() throws IOException {
+        File input = writeFile("input/a.mp4", "v1");
+        ConvertJournal journal = ConvertJournal.load(outputDir());
+        journal.register(RELATIVE_PATH, input);
+        failOnce(journal);
+        assertEquals(MAX_ATTEMPTS - 1, journal.remainingAttempts(RELATIVE_PATH, MAX_ATTEMPTS));
+
+        FileUtils.writeStringToFile(input, "v2 longer", "UTF-8");
+        assertTrue(input.setLastModified(input.lastModified() + 10_000));
+        ConvertJournal.JobEntry entry = journal.register(RELATIVE_PATH, input);
+        assertEquals(ConvertJournal.JobState.PENDING, entry.getState());
+        assertEquals(0, entry.getAttempts());
+        assertEquals(input.length(), entry.getInputSize());
+    }
+
+    @Test
+    void runningEntryBecomesPendingAfterReload() throws IOException {
+        File input = writeFile("input/a.mp4", "v1");
+        ConvertJournal journal = ConvertJournal.load(outputDir());
+        journal.register(RELATIVE_PATH, input);
+        journal.markRunning(RELATIVE_PATH);
+
+        ConvertJournal reloaded = ConvertJournal.load(outputDir());
+        assertEquals(ConvertJournal.JobState.RUNNING, reloaded.getEntry(RELATIVE_PATH).getState());
+        ConvertJournal.JobEntry entry = reloaded.register(RELATIVE_PATH, input);
+        assertEquals(ConvertJournal.JobState.PENDING, entry.getState());
+        // 被中断的一次同样计入尝试次数
+        assertEquals(1, entry.getAttempts());
+    }
+
+    @Test
+    void remainingAttemptsSurviveReload() throws IOException {
+        File input = writeFile("input/a.mp4", "v1");
+        ConvertJournal journal = ConvertJournal.load(outputDir());
+        journal.register(RELATIVE_PATH, input);
+        for (int i = 0; i < MAX_ATTEMPTS; i++) {
+            failOnce(journal);
+        }
+
+        ConvertJournal reloaded = ConvertJournal.load(outputDir());
+        reloaded.register(RELATIVE_PATH, input);
+        assertEquals(0, reloaded.remainingAttempts(RELATIVE_PATH, MAX_ATTEMPTS));
+        assertEquals(MAX_ATTEMPTS, reloaded.remainingAttempts("unknown.mp4", MAX_ATTEMPTS));
+    }
+
+    @Test
+    void finishedOnlyWhileOutputIsComplete() throws IOException {
+        File input = writeFile("input/a.mp4", "v1");
+        File output = writeFile("output/a.mp4", "enhanced content");
+        ConvertJournal journal = ConvertJournal.load(outputDir());
+        journal.register(RELATIVE_PATH, input);
+        journal.markRunning(RELATIVE_PATH);
+        journal.markDone(RELATIVE_PATH, output, "md5", 10);
+        assertTrue(ConvertJournal.load(outputDir()).isFinished(RELATIVE_PATH, input, output));
+
+        FileUtils.writeStringToFile(output, "enhanced", "UTF-8");
+        assertFalse(journal.isFinished(RELATIVE_PATH, input, output));
+        assertFalse(journal.isOutputDone(RELATIVE_PATH, output));
+
+        assertTrue(output.delete());
+        assertFalse(journal.isFinished(RELATIVE_PATH, input, output));
+        // 输出丢失后重新登记，尝试次数重新计算
+        ConvertJournal.JobEntry entry = journal.register(RELATIVE_PATH, input);
+        assertEquals(ConvertJournal.JobState.PENDING, entry.getState());
+        assertEquals(MAX_ATTEMPTS, journal.remainingAttempts(RELATIVE_PATH, MAX_ATTEMPTS));
+    }
+
+    private void failOnce(ConvertJournal journal) {
+        journal.markRunning(RELATIVE_PATH);
+        journal.markFailed(RELATIVE_PATH, 10);
+    }
+
+    private File outputDir() {
+        File outputDir = new File(workDir, "output");
+        outputDir.mkdirs();
+        return outputDir;
+    }
+
+    private File writeFile(String path, String content) throws IOException {
+        File file = new File(workDir, path);
+        FileUtils.writeStringToFile(file, content, "UTF-8");
+        return file;
+    }
+}
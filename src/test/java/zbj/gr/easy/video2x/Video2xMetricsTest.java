@@ -0,0 +1,29 @@
+package zbj.gr.easy.video2x;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Video2xMetricsTest {
+    private static final long STALL_MILLIS = 10 * 60 * 1000L;
+
+    @Test
+    void notStalledBeforeFirstProgress() {
+        Video2xMetrics.JobProgress progress = new Video2xMetrics.JobProgress("key", "a.mp4", 0);
+        long later = progress.getStartTime() + STALL_MILLIS * 3;
+        assertFalse(progress.isStalled(later, STALL_MILLIS));
+        assertTrue(progress.shouldWarnNoProgress(later, STALL_MILLIS));
+        assertFalse(progress.shouldWarnNoProgress(later, STALL_MILLIS));
+    }
+
+    @Test
+    void stalledWhenProgressStops() {
+        Video2xMetrics.JobProgress progress = new Video2xMetrics.JobProgress("key", "a.mp4", 0);
+        assertTrue(Video2xMetrics.onOutputLine(progress, "frame=120/3000 (4.00%); fps=14.96; elapsed=00:00:08; remaining=00:03:12"));
+        long now = System.currentTimeMillis();
+        assertFalse(progress.isStalled(now, STALL_MILLIS));
+        assertTrue(progress.isStalled(now + STALL_MILLIS, STALL_MILLIS));
+        assertFalse(progress.shouldWarnNoProgress(now + STALL_MILLIS, STALL_MILLIS));
+    }
+}
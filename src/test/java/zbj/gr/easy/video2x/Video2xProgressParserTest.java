@@ -0,0 +1,66 @@
+package zbj.gr.easy.video2x;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 卡死检测依赖解析结果，样例按 video2x 各版本命令行实际打印的进度行和日志行编写
+ */
+class Video2xProgressParserTest {
+
+    @Test
+    void parseVideo2x6ProgressLine() {
+        Video2xProgressParser.ProgressSample sample = Video2xProgressParser.parse(
+                "\r\u001B[Kframe=120/3000 (4.00%); fps=14.96; elapsed=00:00:08; remaining=00:03:12");
+        assertNotNull(sample);
+        assertEquals(120, sample.getProcessedFrames());
+        assertEquals(3000, sample.getTotalFrames());
+        assertEquals(14.96, sample.getFps(), 0.001);
+    }
+
+    @Test
+    void parseLastRefreshOfVideo2x6ProgressLine() {
+        Video2xProgressParser.ProgressSample sample = Video2xProgressParser.parse(
+                "\r\u001B[Kframe=119/3000 (3.97%); fps=14.90; elapsed=00:00:08; remaining=00:03:13"
+                        + "\r\u001B[Kframe=120/3000 (4.00%); fps=14.96; elapsed=00:00:08; remaining=00:03:12");
+        assertNotNull(sample);
+        assertEquals(120, sample.getProcessedFrames());
+        assertEquals(14.96, sample.getFps(), 0.001);
+    }
+
+    @Test
+    void parseVideo2x60ProgressLine() {
+        Video2xProgressParser.ProgressSample sample = Video2xProgressParser.parse(
+                "Processing frame 120/3000 (4.00%); time elapsed: 00:00:10; time remaining: 00:04:00");
+        assertNotNull(sample);
+        assertEquals(120, sample.getProcessedFrames());
+        assertEquals(3000, sample.getTotalFrames());
+        assertEquals(-1, sample.getFps(), 0.001);
+    }
+
+    @Test
+    void parseTqdmProgressLine() {
+        Video2xProgressParser.ProgressSample sample = Video2xProgressParser.parse(
+                "Processing:  12%|█▏        | 360/3000 [00:24<02:56, 14.96frame/s]");
+        assertNotNull(sample);
+        assertEquals(360, sample.getProcessedFrames());
+        assertEquals(3000, sample.getTotalFrames());
+        assertEquals(14.96, sample.getFps(), 0.001);
+    }
+
+    @Test
+    void ignoreLogLines() {
+        assertNull(Video2xProgressParser.parse("[2024-12-28 10:15:01.123] [info] Processing file: /data/frame/12/30.mp4"));
+        assertNull(Video2xProgressParser.parse("[2024-12-28 10:15:01.130] [info] Total frames to process: 3000"));
+        assertNull(Video2xProgressParser.parse("[2024-12-28 10:20:11.402] [info] Video processed successfully"));
+        assertNull(Video2xProgressParser.parse(""));
+    }
+
+    @Test
+    void rejectProcessedOverTotal() {
+        assertNull(Video2xProgressParser.parse("frame=3001/3000 (100.03%); fps=14.96"));
+    }
+}